@@ -1,6 +1,63 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+
 public class App {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // java App --server <porta | host:porta | unix:/caminho> [imagem]
+        if (args.length > 0 && args[0].equals("--server")) {
+            if (args.length < 2) {
+                System.out.println("Usage: --server <port | host:port | unix:/path> [image]");
+                return;
+            }
+            runServer(args[1], args.length > 2 ? args[2] : "filesystem.dat");
+            return;
+        }
+        // java App --batch [--flush-every n] < script.txt
+        if (args.length > 0 && args[0].equals("--batch")) {
+            int flushEvery = args.length > 2 && args[1].equals("--flush-every") ? Integer.parseInt(args[2]) : 0;
+            runBatch(flushEvery);
+            return;
+        }
         FileSystemShell shell = new FileSystemShell();
         shell.runShell();
     }
+
+    // Executa os comandos da entrada padrão no modo lote do shell
+    private static void runBatch(int flushEvery) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        List<String> lines = new ArrayList<>();
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lines.add(line);
+        }
+        FileSystemShell shell = new FileSystemShell();
+        shell.runBatch(lines, flushEvery);
+        shell.close();
+    }
+
+    // Monta a imagem e a serve até o processo ser encerrado
+    private static void runServer(String address, String image) throws IOException {
+        FileSystem fs = new FileSystem(image);
+        fs.mount(false, 0);
+        try {
+            fs.registerMBean();
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        FileServer server = new FileServer(fs, FileServer.parseAddress(address));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                fs.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        System.out.println("Serving " + image + " on " + server.getAddress());
+        server.serve();
+    }
 }
@@ -0,0 +1,457 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Seguro para várias threads: o cache é dividido em faixas por um hash do número do bloco, cada
+// uma com o seu LRU, os seus blocos presos e o seu monitor, de modo que acessos a blocos de faixas
+// diferentes não esperam uns pelos outros. A capacidade é repartida exatamente entre as faixas
+// em uso: até STRIPES, mas nunca mais faixas que blocos (com --cache 4, quatro faixas de um
+// bloco). No modo mapeado as leituras e escritas vão direto à imagem, sem trava.
+// Blocos nunca gravados desde o format (unwritten) são lidos como zeros, sem ir ao dispositivo: a
+// imagem é criada esparsa e não é zerada. Depois de um mount todos vêm do disco.
+// Blocos presos (pin) não são despejados: o journal prende os blocos de diretório alterados até
+// que a transação que os alterou esteja gravada, para que eles não cheguem à imagem antes dela.
+public class BlockCache {
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final int STRIPES = 16;
+    private static final int STRIPE_SHIFT = Integer.numberOfTrailingZeros(STRIPES);
+
+    private final BlockDevice device;
+    private final Superblock superblock;
+    private final int blockSize;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile int activeStripes; // Potência de 2, de 1 a STRIPES
+    // Blocos ainda não gravados desde o format (null: nenhum), sob o seu próprio monitor; quem
+    // segura uma faixa pode pegá-lo, nunca o contrário
+    private final Object unwrittenLock = new Object();
+    private BitSet unwritten;
+
+    private static class CachedBlock {
+        final byte[] data;
+        final ByteBuffer view;
+        boolean dirty;
+
+        CachedBlock(int blockSize) {
+            data = new byte[blockSize];
+            view = ByteBuffer.wrap(data);
+        }
+    }
+
+    // Uma faixa do cache; todos os campos são protegidos pelo monitor da própria faixa
+    private final class Stripe {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(blockSize);
+        // accessOrder = true: a iteração começa pelo bloco usado há mais tempo (LRU)
+        final LinkedHashMap<Integer, CachedBlock> blocks = new LinkedHashMap<>(16, 0.75f, true);
+        // Blocos que não podem ser despejados, estejam ou não em cache
+        final Set<Integer> pinned = new HashSet<>();
+        int capacity;
+        long hits;
+        long misses;
+        long writeBacks;
+
+        CachedBlock lookup(int block, boolean load) throws IOException {
+            CachedBlock cached = blocks.get(block);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+            cached = new CachedBlock(blockSize);
+            if (load && !isUnwritten(block)) {
+                buffer.clear();
+                device.read(position(block, 0), buffer);
+                buffer.flip();
+                buffer.get(cached.data);
+            }
+            blocks.put(block, cached);
+            evict();
+            return cached;
+        }
+
+        // Despeja os blocos usados há mais tempo, pulando os presos (que podem deixar a faixa
+        // temporariamente acima da capacidade)
+        void evict() throws IOException {
+            Iterator<Map.Entry<Integer, CachedBlock>> it = blocks.entrySet().iterator();
+            while (blocks.size() > capacity && it.hasNext()) {
+                Map.Entry<Integer, CachedBlock> eldest = it.next();
+                if (pinned.contains(eldest.getKey())) {
+                    continue;
+                }
+                writeBack(eldest.getKey(), eldest.getValue());
+                it.remove();
+            }
+        }
+
+        void writeBack(int block, CachedBlock cached) throws IOException {
+            if (!cached.dirty) {
+                return;
+            }
+            buffer.clear();
+            buffer.put(cached.data);
+            buffer.flip();
+            device.write(position(block, 0), buffer);
+            written(block, block + 1);
+            cached.dirty = false;
+            writeBacks++;
+        }
+    }
+
+    public BlockCache(BlockDevice device, Superblock superblock) {
+        this.device = device;
+        this.superblock = superblock;
+        this.blockSize = superblock.getBlockSize();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        activeStripes = Math.min(STRIPES, Integer.highestOneBit(capacity));
+        setStripeCapacity();
+    }
+
+    public BlockDevice getDevice() {
+        return device;
+    }
+
+    public Superblock getSuperblock() {
+        return superblock;
+    }
+
+    // Espalha os bits (blocos vizinhos ou em passos regulares) antes de escolher a faixa
+    private Stripe stripe(int block) {
+        return stripes[((block * 0x9E3779B9) >>> (32 - STRIPE_SHIFT)) & (activeStripes - 1)];
+    }
+
+    // Só com o cache parado (FileSystem chama no format e no mount, com o volume travado): se o
+    // número de faixas em uso muda, os blocos são redistribuídos entre elas
+    public void setCapacity(int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be at least 1 block");
+        }
+        int active = Math.min(STRIPES, Integer.highestOneBit(capacity));
+        LinkedHashMap<Integer, CachedBlock> moved = new LinkedHashMap<>();
+        Set<Integer> pinnedBlocks = new HashSet<>();
+        if (active != activeStripes) {
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    moved.putAll(stripe.blocks);
+                    pinnedBlocks.addAll(stripe.pinned);
+                    stripe.blocks.clear();
+                    stripe.pinned.clear();
+                }
+            }
+            activeStripes = active;
+        }
+        this.capacity = capacity;
+        setStripeCapacity();
+        for (Map.Entry<Integer, CachedBlock> e : moved.entrySet()) {
+            Stripe stripe = stripe(e.getKey());
+            synchronized (stripe) {
+                stripe.blocks.put(e.getKey(), e.getValue());
+            }
+        }
+        for (int block : pinnedBlocks) {
+            pin(block);
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.evict();
+            }
+        }
+    }
+
+    // Reparte a capacidade exatamente: o resto da divisão vai para as primeiras faixas
+    private void setStripeCapacity() {
+        int active = activeStripes;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].capacity = i >= active ? 0 : capacity / active + (i < capacity % active ? 1 : 0);
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Volume recém-formatado: os blocos em [from, to) ainda não têm nada gravado
+    public void setUnwritten(int from, int to) {
+        synchronized (unwrittenLock) {
+            unwritten = new BitSet(to);
+            unwritten.set(from, to);
+        }
+    }
+
+    public int getUnwrittenBlocks() {
+        synchronized (unwrittenLock) {
+            return unwritten == null ? 0 : unwritten.cardinality();
+        }
+    }
+
+    private boolean isUnwritten(int block) {
+        synchronized (unwrittenLock) {
+            return unwritten != null && unwritten.get(block);
+        }
+    }
+
+    private void written(int from, int to) {
+        synchronized (unwrittenLock) {
+            if (unwritten != null) {
+                unwritten.clear(from, to);
+            }
+        }
+    }
+
+    public void readBlock(int block, byte[] dst) throws IOException {
+        if (device.isMapped()) {
+            device.read(position(block, 0), ByteBuffer.wrap(dst, 0, blockSize));
+            return;
+        }
+        Stripe stripe = stripe(block);
+        synchronized (stripe) {
+            System.arraycopy(stripe.lookup(block, true).data, 0, dst, 0, blockSize);
+        }
+    }
+
+    // Para varreduras do volume inteiro (a verificação): usa a cópia em cache, se houver, mas não
+    // põe no cache o que ler, e lê do dispositivo fora da trava, de modo que várias threads leem
+    // ao mesmo tempo. Só vale enquanto ninguém altera o bloco.
+    public void readBlockForScan(int block, byte[] dst) throws IOException {
+        if (!device.isMapped()) {
+            Stripe stripe = stripe(block);
+            synchronized (stripe) {
+                CachedBlock cached = stripe.blocks.get(block);
+                if (cached != null) {
+                    stripe.hits++;
+                    System.arraycopy(cached.data, 0, dst, 0, blockSize);
+                    return;
+                }
+                if (isUnwritten(block)) {
+                    Arrays.fill(dst, 0, blockSize, (byte) 0);
+                    return;
+                }
+            }
+        }
+        device.read(position(block, 0), ByteBuffer.wrap(dst, 0, blockSize));
+    }
+
+    // Buffer do próprio bloco em cache, sem cópia: somente leitura por convenção e válido
+    // apenas até a próxima operação no cache (que pode despejá-lo); com várias threads, quem lê
+    // precisa de uma trava que impeça as outras de alterar o bloco (a do diretório, por exemplo)
+    public ByteBuffer blockBuffer(int block) throws IOException {
+        Stripe stripe = stripe(block);
+        synchronized (stripe) {
+            return stripe.lookup(block, true).view;
+        }
+    }
+
+    // Sobrescreve o bloco inteiro; não precisa ler o conteúdo antigo do disco
+    public void writeBlock(int block, byte[] src) throws IOException {
+        if (device.isMapped()) {
+            device.write(position(block, 0), ByteBuffer.wrap(src, 0, blockSize));
+            written(block, block + 1);
+            return;
+        }
+        Stripe stripe = stripe(block);
+        synchronized (stripe) {
+            CachedBlock cached = stripe.lookup(block, false);
+            System.arraycopy(src, 0, cached.data, 0, blockSize);
+            cached.dirty = true;
+        }
+    }
+
+    // Grava uma sequência contígua de blocos: os blocos completos vão direto para o
+    // dispositivo numa única escrita sequencial; o último bloco parcial passa pelo cache.
+    // Os blocos são de um arquivo cuja trava de escrita o chamador segura: ninguém mais os lê
+    // ou grava enquanto as cópias em cache são descartadas e a escrita acontece.
+    public void writeRun(int firstBlock, byte[] src, int off, int len) throws IOException {
+        int fullBlocks = len / blockSize;
+        int tail = len % blockSize;
+        if (fullBlocks > 0) {
+            for (int block = firstBlock; block < firstBlock + fullBlocks; block++) {
+                Stripe stripe = stripe(block);
+                synchronized (stripe) {
+                    stripe.blocks.remove(block); // a cópia em cache ficaria desatualizada
+                }
+            }
+            device.write(position(firstBlock, 0),
+                    ByteBuffer.wrap(src, off, fullBlocks * blockSize));
+            written(firstBlock, firstBlock + fullBlocks);
+        }
+        if (tail > 0) {
+            byte[] last = new byte[blockSize];
+            System.arraycopy(src, off + fullBlocks * blockSize, last, 0, tail);
+            writeBlock(firstBlock + fullBlocks, last);
+        }
+    }
+
+    // Leitura de um intervalo arbitrário da área de blocos, possivelmente cruzando blocos
+    public void read(int block, int offset, byte[] dst, int off, int len) throws IOException {
+        if (device.isMapped()) {
+            device.read(position(block, offset), ByteBuffer.wrap(dst, off, len));
+            return;
+        }
+        while (len > 0) {
+            block += offset / blockSize;
+            offset %= blockSize;
+            int n = Math.min(len, blockSize - offset);
+            Stripe stripe = stripe(block);
+            synchronized (stripe) {
+                System.arraycopy(stripe.lookup(block, true).data, offset, dst, off, n);
+            }
+            off += n;
+            len -= n;
+            offset += n;
+        }
+    }
+
+    public void write(int block, int offset, byte[] src, int off, int len) throws IOException {
+        if (device.isMapped()) {
+            device.write(position(block, offset), ByteBuffer.wrap(src, off, len));
+            int first = block + offset / blockSize;
+            written(first, block + (offset + len + blockSize - 1) / blockSize);
+            return;
+        }
+        while (len > 0) {
+            block += offset / blockSize;
+            offset %= blockSize;
+            int n = Math.min(len, blockSize - offset);
+            Stripe stripe = stripe(block);
+            synchronized (stripe) {
+                CachedBlock cached = stripe.lookup(block, n < blockSize);
+                System.arraycopy(src, off, cached.data, offset, n);
+                cached.dirty = true;
+            }
+            off += n;
+            len -= n;
+            offset += n;
+        }
+    }
+
+    // Grava todos os blocos sujos em ordem crescente de bloco
+    public void sync() throws IOException {
+        sync(true);
+    }
+
+    // Grava os blocos sujos que não estão presos (os dados dos arquivos, antes do commit do journal)
+    public void syncUnpinned() throws IOException {
+        sync(false);
+    }
+
+    private void sync(boolean includePinned) throws IOException {
+        int[] dirty = new int[64];
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<Integer, CachedBlock> e : stripe.blocks.entrySet()) {
+                    if (e.getValue().dirty && (includePinned || !stripe.pinned.contains(e.getKey()))) {
+                        if (count == dirty.length) {
+                            dirty = Arrays.copyOf(dirty, count * 2);
+                        }
+                        dirty[count++] = e.getKey();
+                    }
+                }
+            }
+        }
+        Arrays.sort(dirty, 0, count);
+        for (int i = 0; i < count; i++) {
+            Stripe stripe = stripe(dirty[i]);
+            synchronized (stripe) {
+                // get() em um LinkedHashMap com accessOrder altera a ordem, mas não o conteúdo;
+                // o bloco pode ter sido despejado ou preso desde a coleta
+                CachedBlock cached = stripe.blocks.get(dirty[i]);
+                if (cached != null && (includePinned || !stripe.pinned.contains(dirty[i]))) {
+                    stripe.writeBack(dirty[i], cached);
+                }
+            }
+        }
+    }
+
+    // Impede que o bloco seja despejado até o unpin; pode ser chamado antes de o bloco ser escrito
+    public void pin(int block) {
+        Stripe stripe = stripe(block);
+        synchronized (stripe) {
+            stripe.pinned.add(block);
+        }
+    }
+
+    public void unpin(int block) throws IOException {
+        Stripe stripe = stripe(block);
+        synchronized (stripe) {
+            stripe.pinned.remove(block);
+            stripe.evict();
+        }
+    }
+
+    // Descarta o conteúdo sem gravar (a imagem foi reescrita por fora do cache)
+    public void invalidate() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.blocks.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        long hits = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    public long getMisses() {
+        long misses = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    public long getWriteBacks() {
+        long writeBacks = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                writeBacks += stripe.writeBacks;
+            }
+        }
+        return writeBacks;
+    }
+
+    public int getCachedBlocks() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.blocks.size();
+            }
+        }
+        return count;
+    }
+
+    public int getDirtyBlocks() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (CachedBlock cached : stripe.blocks.values()) {
+                    if (cached.dirty) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private long position(int block, int offset) {
+        return superblock.position(block) + offset;
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BlockDevice {
+    // Um MappedByteBuffer endereça no máximo 2 GB: imagens maiores são mapeadas em segmentos de 1 GB,
+    // múltiplos de qualquer tamanho de bloco, de modo que um bloco nunca cruza dois segmentos
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final String file;
+    // Leituras e escritas posicionais não alteram estado do dispositivo e podem ser feitas por várias
+    // threads ao mesmo tempo; abrir, remapear e fechar são sincronizados
+    private volatile FileChannel channel;
+    private volatile boolean mapped;
+    private volatile MappedByteBuffer[] segments;
+    // E/S pedida ao dispositivo (LongAdder: as threads não disputam o mesmo contador)
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readBytes = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    private volatile int blockSize = 1; // Só para os eventos do JFR (bloco = posição / blockSize)
+
+    public BlockDevice(String file) {
+        this.file = file;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    // Troca entre acesso por canal e imagem mapeada; reabre na próxima operação
+    public synchronized void setMapped(boolean mapped) throws IOException {
+        if (this.mapped != mapped) {
+            close();
+            this.mapped = mapped;
+        }
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    // Abre a imagem uma única vez; chamadas seguintes reutilizam o mesmo canal
+    public void open() throws IOException {
+        if (channel == null) {
+            openChannel();
+        }
+    }
+
+    private synchronized void openChannel() throws IOException {
+        if (channel == null) {
+            FileChannel opened = FileChannel.open(Path.of(file), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (mapped) {
+                segments = map(opened);
+            }
+            channel = opened;
+        }
+    }
+
+    // Mapeia o arquivo inteiro, no tamanho que ele tem agora
+    private static MappedByteBuffer[] map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return segments;
+    }
+
+    private void unmap() {
+        if (segments != null) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            segments = null;
+        }
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public long getReadBytes() {
+        return readBytes.sum();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.sum();
+    }
+
+    public boolean isOpen() {
+        return channel != null;
+    }
+
+    public long size() throws IOException {
+        open();
+        return channel.size();
+    }
+
+    // Descarta o conteúdo e recria a imagem com o tamanho dado, sem gravar nada além do último
+    // byte: a imagem fica esparsa (o espaço só é ocupado no disco quando um bloco é gravado)
+    public synchronized void erase(long size) throws IOException {
+        open();
+        segments = null; // O conteúdo mapeado não precisa ir para o disco
+        channel.truncate(0);
+        channel.write(ByteBuffer.allocate(1), size - 1);
+        if (mapped) {
+            segments = map(channel);
+        }
+    }
+
+    // Ajusta o tamanho da imagem (sem gravar os blocos: a extensão fica esparsa) e refaz o mapeamento
+    public synchronized void setLength(long size) throws IOException {
+        open();
+        unmap();
+        if (channel.size() > size) {
+            channel.truncate(size);
+        } else if (channel.size() < size) {
+            channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+        if (mapped) {
+            segments = map(channel);
+        }
+    }
+
+    // Segmento mapeado que contém a posição, ou null no modo canal
+    public MappedByteBuffer mappedSegment(long position) throws IOException {
+        open();
+        MappedByteBuffer[] segments = this.segments;
+        if (segments == null) {
+            return null;
+        }
+        int index = (int) (position >>> SEGMENT_SHIFT);
+        if (index >= segments.length) {
+            throw new EOFException("Position " + position + " past end of " + file);
+        }
+        return segments[index];
+    }
+
+    // Deslocamento da posição dentro do seu segmento mapeado
+    public static int segmentOffset(long position) {
+        return (int) (position & (SEGMENT_SIZE - 1));
+    }
+
+    public void read(long position, ByteBuffer dst) throws IOException {
+        open();
+        int bytes = dst.remaining();
+        reads.increment();
+        readBytes.add(bytes);
+        // Evento do JFR (FileSystemEvents): sem gravação, não custa nada
+        FileSystemEvents.BlockRead event = new FileSystemEvents.BlockRead();
+        event.begin();
+        long start = position;
+        try {
+            if (segments != null) {
+                while (dst.hasRemaining()) {
+                    MappedByteBuffer segment = mappedSegment(position);
+                    int offset = segmentOffset(position);
+                    int length = Math.min(dst.remaining(), segment.capacity() - offset);
+                    dst.put(dst.position(), segment, offset, length);
+                    dst.position(dst.position() + length);
+                    position += length;
+                }
+                return;
+            }
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, position);
+                if (n < 0) {
+                    throw new EOFException("Read past end of " + file + " at offset " + position);
+                }
+                position += n;
+            }
+        } finally {
+            if (event.shouldCommit()) {
+                event.block = (int) (start / blockSize);
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    public void write(long position, ByteBuffer src) throws IOException {
+        open();
+        int bytes = src.remaining();
+        writes.increment();
+        writtenBytes.add(bytes);
+        // Evento do JFR (FileSystemEvents): sem gravação, não custa nada
+        FileSystemEvents.BlockWrite event = new FileSystemEvents.BlockWrite();
+        event.begin();
+        long start = position;
+        try {
+            if (segments != null) {
+                while (src.hasRemaining()) {
+                    MappedByteBuffer segment = mappedSegment(position);
+                    int offset = segmentOffset(position);
+                    int length = Math.min(src.remaining(), segment.capacity() - offset);
+                    segment.put(offset, src, src.position(), length);
+                    src.position(src.position() + length);
+                    position += length;
+                }
+                return;
+            }
+            while (src.hasRemaining()) {
+                position += channel.write(src, position);
+            }
+        } finally {
+            if (event.shouldCommit()) {
+                event.block = (int) (start / blockSize);
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    // Ponto de flush explícito: no modo mapeado grava as páginas sujas do intervalo;
+    // no modo canal as escritas já foram entregues ao sistema operacional
+    public void flush(long position, int length) throws IOException {
+        if (segments == null) {
+            return;
+        }
+        while (length > 0) {
+            MappedByteBuffer segment = mappedSegment(position);
+            int offset = segmentOffset(position);
+            int n = Math.min(length, segment.capacity() - offset);
+            segment.force(offset, n);
+            position += n;
+            length -= n;
+        }
+    }
+
+    // Garante que o intervalo chegou ao disco: no modo mapeado grava só as páginas do intervalo;
+    // no modo canal força o arquivo inteiro (o canal não força intervalos)
+    public void force(long position, int length) throws IOException {
+        if (segments != null) {
+            flush(position, length);
+        } else if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    public synchronized void force() throws IOException {
+        if (segments != null) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            unmap();
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+// Blocos de um arquivo em ordem (índice do bloco no arquivo -> bloco na imagem), montado numa única
+// travessia da cadeia na FAT; a partir daí chegar a qualquer deslocamento do arquivo é O(1).
+public class BlockMap {
+    private int[] blocks = new int[4];
+    private int count;
+
+    public static BlockMap build(FATManager fatManager, int firstBlock) throws IOException {
+        int totalBlocks = fatManager.getSuperblock().getBlocks();
+        BlockMap map = new BlockMap();
+        int block = firstBlock;
+        map.add(block);
+        while (fatManager.getFatValue(block) != FileSystemParam.FAT_EOF) {
+            int next = fatManager.getFatValue(block);
+            if (next <= 0 || next >= totalBlocks) {
+                throw new IOException("Invalid FAT value at block " + block + ": " + next);
+            }
+            if (map.count == totalBlocks) {
+                throw new IOException("Loop detected in FAT chain at block " + block);
+            }
+            block = next;
+            map.add(block);
+        }
+        return map;
+    }
+
+    public void add(int block) {
+        if (count == blocks.length) {
+            blocks = Arrays.copyOf(blocks, count * 2);
+        }
+        blocks[count++] = block;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int blockAt(int index) {
+        if (index >= count) {
+            throw new IndexOutOfBoundsException("Block " + index + " of a " + count + "-block file");
+        }
+        return blocks[index];
+    }
+
+    public int last() {
+        return blocks[count - 1];
+    }
+
+    // Quantos blocos, a partir de 'index' e até 'max', são consecutivos na imagem
+    public int contiguous(int index, int max) {
+        int n = 1;
+        while (n < max && index + n < count && blocks[index + n] == blocks[index] + n) {
+            n++;
+        }
+        return n;
+    }
+}
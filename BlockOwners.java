@@ -0,0 +1,150 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+// Tabela de donos dos blocos: para cada bloco alocado, o primeiro bloco da cadeia (arquivo ou
+// diretório) a que ele pertence; 0 = sem dono. É mantida junto com as alocações, de modo que
+// "check --fast" compara a tabela com a FAT numa passada, sem percorrer a árvore.
+//
+// Fica num arquivo ao lado da imagem (<imagem>.owners), gravado no sync e no close, com os donos
+// em sequências (dono, quantidade): os blocos de um arquivo costumam ser contíguos. O arquivo tem
+// uma marca de "limpo", apagada na primeira alteração depois de gravado: se o volume não foi
+// fechado direito, a tabela é reconstruída no mount (FileSystem.mount).
+//
+// Não é sincronizada: é usada sob o monitor do FATManager.
+public class BlockOwners {
+    private static final int MAGIC = 0x54324f57; // "T2OW"
+    private static final int CLEAN_OFFSET = 8;
+
+    private final int[] owners;
+    private final Path file;
+    private boolean saved; // O arquivo está em dia e marcado como limpo
+    private boolean valid; // Corresponde a um volume (formatado, carregado ou reconstruído)
+
+    public BlockOwners(String image, int blocks) {
+        this.owners = new int[blocks];
+        this.file = Path.of(image + ".owners");
+    }
+
+    public int get(int block) {
+        return owners[block];
+    }
+
+    public void set(int block, int owner) {
+        if (owners[block] != owner) {
+            markChanged();
+            owners[block] = owner;
+        }
+    }
+
+    public void clear() {
+        markChanged();
+        Arrays.fill(owners, 0);
+        valid = true;
+    }
+
+    // Troca a tabela inteira (reconstruída a partir da árvore)
+    public void replace(int[] table) {
+        markChanged();
+        System.arraycopy(table, 0, owners, 0, owners.length);
+        valid = true;
+    }
+
+    public int[] copy() {
+        return owners.clone();
+    }
+
+    // A primeira alteração depois de gravar apaga a marca de limpo no arquivo
+    private void markChanged() {
+        if (!saved) {
+            return;
+        }
+        saved = false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0 }), CLEAN_OFFSET);
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Nada a gravar antes do primeiro format ou mount
+    public void save() throws IOException {
+        if (!valid) {
+            return;
+        }
+        Path temp = Path.of(file + ".tmp");
+        CRC32C crc = new CRC32C();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(owners.length);
+            out.writeByte(1); // Limpo
+            ByteBuffer run = ByteBuffer.allocate(8);
+            for (int start = 0; start < owners.length; ) {
+                int end = start + 1;
+                while (end < owners.length && owners[end] == owners[start]) {
+                    end++;
+                }
+                run.clear();
+                run.putInt(owners[start]).putInt(end - start);
+                crc.update(run.array(), 0, 8);
+                out.write(run.array(), 0, 8);
+                start = end;
+            }
+            out.writeInt((int) crc.getValue());
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        saved = true;
+    }
+
+    // Carrega a tabela gravada; false (tabela intacta) se o arquivo não existe, é de outra
+    // geometria, está corrompido ou não foi fechado limpo
+    public boolean load() throws IOException {
+        int[] table = new int[owners.length];
+        CRC32C crc = new CRC32C();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != owners.length || in.readByte() != 1) {
+                return false;
+            }
+            byte[] run = new byte[8];
+            for (int start = 0; start < table.length; ) {
+                in.readFully(run);
+                crc.update(run, 0, 8);
+                ByteBuffer buffer = ByteBuffer.wrap(run);
+                int owner = buffer.getInt();
+                int count = buffer.getInt();
+                if (count <= 0 || count > table.length - start) {
+                    return false;
+                }
+                Arrays.fill(table, start, start + count, owner);
+                start += count;
+            }
+            if (in.readInt() != (int) crc.getValue()) {
+                return false;
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (EOFException e) {
+            return false;
+        }
+        System.arraycopy(table, 0, owners, 0, owners.length);
+        saved = true;
+        valid = true;
+        return true;
+    }
+}
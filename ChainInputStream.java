@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Objects;
+
+// Leitura sequencial de um arquivo seguindo a sua cadeia na FAT. Copia direto dos blocos (cache ou
+// imagem mapeada) para o buffer de quem lê, atravessando numa só cópia os blocos contíguos; não
+// guarda nada além da posição atual, então a memória usada não depende do tamanho do arquivo.
+public class ChainInputStream extends InputStream implements ReadableByteChannel {
+    private final BlockCache cache;
+    private final FATManager fatManager;
+    private final int blockSize;
+    private int block;
+    private int blockOffset; // bytes já lidos de 'block' (== blockSize: seguir a FAT na próxima leitura)
+    private long remaining;
+    private byte[] transfer; // usado só por read(ByteBuffer) com buffers diretos
+    private boolean closed;
+
+    public ChainInputStream(BlockCache cache, FATManager fatManager, int firstBlock, int size) {
+        this.cache = cache;
+        this.fatManager = fatManager;
+        this.blockSize = cache.getSuperblock().getBlockSize();
+        this.block = firstBlock;
+        this.remaining = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (blockOffset == blockSize) {
+            block = nextBlock(block);
+            blockOffset = 0;
+        }
+        // Estende a cópia pelos blocos seguintes enquanto forem contíguos na imagem
+        long wanted = Math.min(len, remaining);
+        long available = blockSize - blockOffset;
+        int last = block;
+        while (available < wanted && fatManager.getFatValue(last) == last + 1) {
+            last++;
+            available += blockSize;
+        }
+        int n = (int) Math.min(available, wanted);
+        cache.read(block, blockOffset, b, off, n);
+        blockOffset += n;
+        int crossed = (blockOffset - 1) / blockSize;
+        block += crossed;
+        blockOffset -= crossed * blockSize;
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (dst.hasArray()) {
+            int n = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+            return n;
+        }
+        if (transfer == null) {
+            transfer = new byte[blockSize];
+        }
+        int n = read(transfer, 0, Math.min(transfer.length, dst.remaining()));
+        if (n > 0) {
+            dst.put(transfer, 0, n);
+        }
+        return n;
+    }
+
+    private int nextBlock(int current) throws IOException {
+        int next = fatManager.getFatValue(current);
+        if (next == FileSystemParam.FAT_EOF || next == FileSystemParam.FAT_FREE
+                || next <= cache.getSuperblock().getRootBlock() || next >= cache.getSuperblock().getBlocks()) {
+            throw new IOException("File chain ends before its size at block " + current);
+        }
+        return next;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystemException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+// Escrita sequencial de um arquivo sobre a sua cadeia na FAT. Os dados passam por um buffer de
+// tamanho fixo com alguns blocos contíguos, gravado numa única escrita quando enche; os blocos são
+// alocados conforme necessário (de uma vez, se o tamanho esperado for informado) e a entrada de
+// diretório (primeiro bloco e tamanho) só é gravada no close. O mapa de blocos do arquivo no
+// FileHandle acompanha os blocos usados, então um append não percorre a cadeia de novo.
+public class ChainOutputStream extends OutputStream implements WritableByteChannel {
+    private static final int RUN_BYTES = 64 * 1024;
+
+    private final FileManager files;
+    private final BlockCache cache;
+    private final FATManager fatManager;
+    private final DirectoryManager dirManager;
+    private final FileHandle file;
+    private final DirEntry entry;
+    private final int blockSize;
+
+    // Blocos contíguos ainda não gravados: runBlocks blocos a partir de runStart, runLength bytes válidos
+    private final byte[] run;
+    private int runStart = -1;
+    private int runBlocks;
+    private int runLength;
+
+    private final BlockMap map;
+    private int firstBlock = -1;
+    private int tailBlock = -1;   // último bloco do arquivo que já recebeu dados
+    private int lastLinked = -1;  // último bloco encadeado, incluindo os reservados
+    private int chainHead = -1;   // primeiro bloco da cadeia, dono dos blocos alocados (BlockOwners)
+    private int linkedBlocks;
+    private int[] reserved;       // blocos alocados (já encadeados) e ainda não usados
+    private int nextReserved;
+    private long size;
+    private boolean closed;
+
+    // expectedBytes (0 se desconhecido) permite alocar de uma vez, e verificar antes de gravar,
+    // todo o espaço necessário
+    public ChainOutputStream(FileManager files, FileHandle file, boolean append, long expectedBytes)
+            throws IOException {
+        this.files = files;
+        this.cache = files.getCache();
+        this.fatManager = files.getFatManager();
+        this.dirManager = files.getDirManager();
+        this.file = file;
+        this.entry = file.entry;
+        this.blockSize = cache.getSuperblock().getBlockSize();
+        // O buffer não passa do necessário para o que se espera gravar (appends pequenos e frequentes)
+        int runCapacity = Math.max(1, RUN_BYTES / blockSize);
+        if (expectedBytes > 0) {
+            long startOffset = append ? entry.size % blockSize : 0;
+            runCapacity = Math.min(runCapacity, Math.max(1, blocksFor(startOffset + expectedBytes)));
+        }
+        this.run = new byte[runCapacity * blockSize];
+
+        if (append) {
+            map = files.blockMap(file);
+            openForAppend();
+        } else {
+            // Em long: um tamanho esperado enorme não pode dar a volta no int
+            long needed = Math.max(1, expectedBytes / blockSize + (expectedBytes % blockSize == 0 ? 0 : 1));
+            if (needed > fatManager.getFreeBlocks() + fatManager.chainLength(entry.first_block)) {
+                throw new NoSpaceException(file.path);
+            }
+            map = new BlockMap();
+        }
+        if (expectedBytes > Integer.MAX_VALUE - size) {
+            throw new FileSystemException(file.path, null, "File too large");
+        }
+        // A cadeia antiga só é liberada depois de todas as verificações: um erro acima deixa o
+        // arquivo como estava
+        if (!append) {
+            fatManager.freeChain(entry.first_block);
+            files.forget(entry.first_block);
+        }
+        int missing = blocksFor(size + expectedBytes) - linkedBlocks;
+        if (expectedBytes > 0 && missing > 0) {
+            reserve(missing);
+        }
+    }
+
+    // Posiciona no fim do arquivo; o que já existe no último bloco volta para o buffer
+    private void openForAppend() throws IOException {
+        firstBlock = entry.first_block;
+        chainHead = firstBlock;
+        linkedBlocks = map.count();
+        tailBlock = map.last();
+        lastLinked = tailBlock;
+        size = entry.size;
+
+        // Um último bloco cheio não tem espaço livre; um arquivo vazio começa no seu primeiro bloco
+        int used = (int) (size % blockSize);
+        if (used > 0 || size == 0) {
+            runStart = tailBlock;
+            runBlocks = 1;
+            runLength = used;
+            cache.read(tailBlock, 0, run, 0, used);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen(len);
+        while (len > 0) {
+            int n = Math.min(len, room());
+            System.arraycopy(b, off, run, runLength, n);
+            runLength += n;
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int total = src.remaining();
+        ensureOpen(total);
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), room());
+            src.get(run, runLength, n);
+            runLength += n;
+            size += n;
+        }
+        return total;
+    }
+
+    private void ensureOpen(int len) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (size + len > Integer.MAX_VALUE) {
+            throw new FileSystemException(file.path, null, "File too large");
+        }
+    }
+
+    // Espaço livre no buffer; quando acaba, acrescenta o próximo bloco do arquivo ao buffer
+    // (se for contíguo e couber) ou grava o buffer e recomeça a partir dele
+    private int room() throws IOException {
+        int room = runBlocks * blockSize - runLength;
+        if (room > 0) {
+            return room;
+        }
+        int block = nextBlock();
+        if (runStart != -1 && block == runStart + runBlocks && runLength < run.length) {
+            runBlocks++;
+        } else {
+            flushRun();
+            runStart = block;
+            runBlocks = 1;
+        }
+        return blockSize;
+    }
+
+    private int nextBlock() throws IOException {
+        if (reserved == null || nextReserved == reserved.length) {
+            // Sem tamanho esperado (ou além dele): cresce um buffer de blocos por vez
+            int free = fatManager.getFreeBlocks();
+            if (free == 0) {
+                throw new NoSpaceException(file.path);
+            }
+            reserve(Math.min(free, run.length / blockSize));
+        }
+        int block = reserved[nextReserved++];
+        if (firstBlock == -1) {
+            firstBlock = block;
+        }
+        tailBlock = block;
+        map.add(block);
+        return block;
+    }
+
+    private void reserve(int count) throws IOException {
+        int[] blocks = fatManager.allocateBlocks(count);
+        if (blocks == null) {
+            throw new NoSpaceException(file.path);
+        }
+        if (lastLinked != -1) {
+            fatManager.setFatValue(lastLinked, blocks[0]);
+        } else {
+            chainHead = blocks[0];
+        }
+        fatManager.claim(blocks, chainHead);
+        lastLinked = blocks[count - 1];
+        linkedBlocks += count;
+        reserved = blocks;
+        nextReserved = 0;
+    }
+
+    private void flushRun() throws IOException {
+        if (runStart != -1 && runLength > 0) {
+            cache.writeRun(runStart, run, 0, runLength);
+        }
+        runStart = -1;
+        runBlocks = 0;
+        runLength = 0;
+    }
+
+    private int blocksFor(long bytes) {
+        return (int) ((bytes + blockSize - 1) / blockSize);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    // Grava o que resta no buffer, devolve os blocos reservados e não usados e grava a entrada
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flushRun();
+        if (tailBlock == -1) {
+            tailBlock = nextBlock(); // um arquivo sempre ocupa ao menos um bloco
+        }
+        if (reserved != null) {
+            for (int i = nextReserved; i < reserved.length; i++) {
+                fatManager.freeBlock(reserved[i]);
+            }
+        }
+        fatManager.setFatValue(tailBlock, FileSystemParam.FAT_EOF);
+        file.map = map;
+        files.register(firstBlock, map);
+
+        entry.first_block = firstBlock;
+        entry.size = (int) size;
+        dirManager.writeDirEntry(file.dirBlock, file.entryBlock, file.entryIndex, entry);
+        fatManager.saveFAT();
+    }
+}
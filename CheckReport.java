@@ -0,0 +1,23 @@
+import java.util.List;
+
+// Resultado de FileSystem.checkVolume: as inconsistências encontradas (vazia se o volume estiver
+// consistente) e o que foi percorrido, para medir a verificação
+public class CheckReport {
+    public final List<String> problems;
+    public final int directories;
+    public final int files;
+    public final int blocks; // Blocos alcançados a partir da raiz, mais os reservados
+    public final long elapsedNanos;
+
+    public CheckReport(List<String> problems, int directories, int files, int blocks, long elapsedNanos) {
+        this.problems = problems;
+        this.directories = directories;
+        this.files = files;
+        this.blocks = blocks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public double blocksPerSecond() {
+        return blocks / Math.max(elapsedNanos / 1e9, 1e-9);
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Verificação de consistência em paralelo. Trabalha sobre uma cópia da FAT tirada de uma vez e lê
+// cada bloco de diretório inteiro (uma cópia por bloco, em vez de uma entrada por vez, e sem
+// passar pela trava do cache); cada diretório é uma tarefa do ForkJoinPool e os subdiretórios
+// são verificados em paralelo.
+// O bitmap de blocos alcançados é compartilhado entre as tarefas: marcar um bloco é um CAS, e
+// quem encontra o bloco já marcado relata "already used" (com várias tarefas, qual das entradas
+// que dividem um bloco é relatada depende de qual chegou primeiro).
+//
+// O chamador garante que o volume não muda durante a verificação (FileSystem.checkVolume segura
+// a namespace exclusiva). Os problemas de um diretório vêm antes dos dos seus subdiretórios.
+// Com uma tabela de donos, a verificação também a preenche (reconstrução de BlockOwners no mount).
+//
+// checkOwners é a verificação rápida: compara a FAT com a tabela de donos numa passada, sem ler
+// nenhum bloco de diretório. Não vê o que só a árvore mostra (tamanhos, entradas que apontam para
+// a cadeia errada).
+public class ConsistencyChecker {
+    private static final int FREE = FileSystemParam.FAT_FREE;
+    private static final int EOF = FileSystemParam.FAT_EOF;
+
+    private final BlockCache cache;
+    private final Superblock superblock;
+    private final int[] fat;
+    private final int blockSize;
+    private final int entriesPerBlock;
+    private final AtomicLongArray reached; // bit 1 = bloco já alcançado
+    private final int[] owners;            // null se não for para preencher a tabela de donos
+    private final AtomicInteger directories = new AtomicInteger();
+    private final AtomicInteger files = new AtomicInteger();
+
+    // fat: cópia da FAT (FATManager.copyFAT), só lida
+    public ConsistencyChecker(BlockCache cache, int[] fat) {
+        this(cache, fat, null);
+    }
+
+    // owners: tabela a preencher com o primeiro bloco da cadeia de cada bloco alcançado
+    public ConsistencyChecker(BlockCache cache, int[] fat, int[] owners) {
+        this.cache = cache;
+        this.owners = owners;
+        this.superblock = cache.getSuperblock();
+        this.fat = fat;
+        this.blockSize = superblock.getBlockSize();
+        this.entriesPerBlock = superblock.getDirEntries();
+        this.reached = new AtomicLongArray((fat.length + 63) / 64);
+    }
+
+    public CheckReport run(ForkJoinPool pool) {
+        long start = System.nanoTime();
+        // Superbloco, FAT e journal
+        for (int i = 0; i < superblock.getRootBlock(); i++) {
+            mark(i);
+        }
+        List<String> problems = pool.invoke(new DirectoryTask(superblock.getRootBlock()));
+
+        // Blocos alocados que não foram alcançados, numa passada pela FAT
+        int blocks = 0;
+        for (int word = 0; word < reached.length(); word++) {
+            long bits = reached.get(word);
+            blocks += Long.bitCount(bits);
+            int end = Math.min(fat.length, (word + 1) * 64);
+            for (int i = word * 64; i < end; i++) {
+                if (fat[i] != FREE && (bits & (1L << i)) == 0) {
+                    problems.add("Block " + i + " is allocated but not referenced.");
+                }
+            }
+        }
+        return new CheckReport(problems, directories.get(), files.get(), blocks, System.nanoTime() - start);
+    }
+
+    // Marca o bloco como alcançado; false se já estava
+    private boolean mark(int block) {
+        int word = block >>> 6;
+        long bit = 1L << block;
+        while (true) {
+            long bits = reached.get(word);
+            if ((bits & bit) != 0) {
+                return false;
+            }
+            if (reached.compareAndSet(word, bits, bits | bit)) {
+                return true;
+            }
+        }
+    }
+
+    private void own(int block, int head) {
+        if (owners != null) {
+            owners[block] = head; // Cada bloco é marcado por uma tarefa só
+        }
+    }
+
+    private boolean inVolume(int block) {
+        return block > 0 && block < fat.length;
+    }
+
+    // Verificação rápida. Para cada bloco alocado: tem dono; o próximo da cadeia é do mesmo dono,
+    // não é o início de uma cadeia e não é apontado por outro bloco; e todo bloco que não começa
+    // uma cadeia é apontado por algum. Blocos livres não têm dono.
+    public static CheckReport checkOwners(int[] fat, int[] owners, int rootBlock) {
+        long start = System.nanoTime();
+        List<String> problems = new ArrayList<>();
+        BitSet linked = new BitSet(fat.length); // apontados pelo bloco anterior da cadeia
+        int blocks = rootBlock;
+        for (int block = rootBlock; block < fat.length; block++) {
+            int owner = owners[block];
+            int next = fat[block];
+            if (next == FREE) {
+                if (owner != 0) {
+                    problems.add("Block " + block + " is free but owned by chain " + owner + ".");
+                }
+                continue;
+            }
+            blocks++;
+            if (owner == 0) {
+                problems.add("Block " + block + " is allocated but not referenced.");
+            } else if (next != EOF) {
+                if (next <= 0 || next >= fat.length) {
+                    problems.add("Chain " + owner + " points outside the volume at block " + block + ".");
+                } else if (fat[next] == FREE) {
+                    problems.add("Chain " + owner + " links block " + block + " to free block " + next + ".");
+                } else if (owners[next] != owner || next == owner || linked.get(next)) {
+                    problems.add("Block " + next + " is already used.");
+                } else {
+                    linked.set(next);
+                }
+            }
+        }
+        for (int block = rootBlock; block < fat.length; block++) {
+            int owner = owners[block];
+            if (owner != 0 && owner != block && fat[block] != FREE && !linked.get(block)) {
+                problems.add("Block " + block + " is allocated but not referenced.");
+            }
+        }
+        return new CheckReport(problems, 0, 0, blocks, System.nanoTime() - start);
+    }
+
+    private final class DirectoryTask extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int dirBlock;
+
+        DirectoryTask(int dirBlock) {
+            this.dirBlock = dirBlock;
+        }
+
+        @Override
+        protected List<String> compute() {
+            directories.incrementAndGet();
+            List<String> problems = new ArrayList<>();
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            byte[] data = new byte[blockSize];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            DirEntryView entry = new DirEntryView();
+            int block = dirBlock;
+            while (true) {
+                if (!mark(block)) {
+                    problems.add("Block " + block + " is already used.");
+                    break;
+                }
+                own(block, dirBlock);
+                try {
+                    cache.readBlockForScan(block, data);
+                } catch (IOException e) {
+                    problems.add("Directory block " + block + " could not be read: " + e.getMessage());
+                    break;
+                }
+                for (int i = 0; i < entriesPerBlock; i++) {
+                    entry.moveTo(buffer, i * FileSystemParam.DIR_ENTRY_SIZE);
+                    if (entry.isFree()) {
+                        continue;
+                    }
+                    int firstBlock = entry.firstBlock();
+                    if (!inVolume(firstBlock)) {
+                        problems.add("Entry " + entry.name() + " has invalid first block.");
+                    } else if (entry.attributes() == 0x01) {
+                        checkFile(entry, firstBlock, problems);
+                    } else if (entry.attributes() == 0x02) {
+                        subdirectories.add(new DirectoryTask(firstBlock));
+                    }
+                }
+                int next = fat[block];
+                if (next == EOF || next == FREE) {
+                    break;
+                }
+                if (!inVolume(next)) {
+                    problems.add("Directory chain at block " + block + " points outside the volume.");
+                    break;
+                }
+                block = next;
+            }
+            invokeAll(subdirectories);
+            for (DirectoryTask subdirectory : subdirectories) {
+                problems.addAll(subdirectory.join());
+            }
+            return problems;
+        }
+
+        private void checkFile(DirEntryView entry, int firstBlock, List<String> problems) {
+            files.incrementAndGet();
+            int current = firstBlock;
+            long totalSize = 0;
+            while (current != EOF && current != FREE) {
+                if (!inVolume(current)) {
+                    problems.add("File " + entry.name() + " chain points outside the volume.");
+                    return;
+                }
+                if (!mark(current)) {
+                    problems.add("Block " + current + " is already used.");
+                    break;
+                }
+                own(current, firstBlock);
+                totalSize += blockSize;
+                current = fat[current];
+            }
+            if (current == FREE) {
+                problems.add("File " + entry.name() + " chain terminated improperly.");
+            }
+            if (totalSize < entry.size()) {
+                problems.add("File " + entry.name() + " size mismatch.");
+            }
+        }
+    }
+}
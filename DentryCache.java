@@ -0,0 +1,109 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Cache de resolução de nomes: (bloco do diretório pai, nome) -> entrada encontrada.
+// Guarda também entradas negativas (nome inexistente naquele diretório). Seguro para várias threads.
+public class DentryCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static final class Dentry {
+        public final int entryBlock; // bloco da cadeia do diretório que contém a entrada
+        public final int entryIndex;
+        public final int firstBlock;
+        public final byte attributes;
+
+        public Dentry(int entryBlock, int entryIndex, int firstBlock, byte attributes) {
+            this.entryBlock = entryBlock;
+            this.entryIndex = entryIndex;
+            this.firstBlock = firstBlock;
+            this.attributes = attributes;
+        }
+    }
+
+    // Marca um nome que sabidamente não existe no diretório
+    public static final Dentry NEGATIVE = new Dentry(-1, -1, -1, (byte) 0);
+
+    private static final class Key {
+        final int parentBlock;
+        final String name;
+
+        Key(int parentBlock, String name) {
+            this.parentBlock = parentBlock;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return parentBlock == other.parentBlock && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * parentBlock + name.hashCode();
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Dentry> entries;
+    private long hits;
+    private long misses;
+
+    public DentryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DentryCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Dentry> eldest) {
+                return size() > DentryCache.this.capacity;
+            }
+        };
+    }
+
+    // null = não está no cache; NEGATIVE = sabidamente inexistente
+    public synchronized Dentry get(int parentBlock, String name) {
+        Dentry dentry = entries.get(new Key(parentBlock, name));
+        if (dentry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return dentry;
+    }
+
+    public synchronized void put(int parentBlock, String name, Dentry dentry) {
+        entries.put(new Key(parentBlock, name), dentry);
+    }
+
+    public synchronized void put(int parentBlock, String name, int entryBlock, int entryIndex, int firstBlock, byte attributes) {
+        put(parentBlock, name,
+                attributes == 0x00 ? NEGATIVE : new Dentry(entryBlock, entryIndex, firstBlock, attributes));
+    }
+
+    // Descarta tudo o que foi resolvido dentro de um diretório (o bloco foi liberado)
+    public synchronized void invalidateDirectory(int parentBlock) {
+        entries.keySet().removeIf(key -> key.parentBlock == parentBlock);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
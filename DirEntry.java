@@ -1,5 +1,5 @@
 public class DirEntry {
-    public byte[] filename = new byte[25];
+    public byte[] filename = new byte[FileSystemParam.FILENAME_SIZE];
     public byte attributes;
     public int first_block; // Alterado de short para int
     public int size;
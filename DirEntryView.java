@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+
+// Visão (flyweight) de uma entrada de diretório diretamente sobre o buffer do bloco.
+// Não copia nada: só é válida até a próxima operação no DirectoryManager.
+public class DirEntryView {
+    public static final int ATTRIBUTES_OFFSET = FileSystemParam.FILENAME_SIZE;
+    public static final int FIRST_BLOCK_OFFSET = ATTRIBUTES_OFFSET + 1;
+    public static final int SIZE_OFFSET = FIRST_BLOCK_OFFSET + 4;
+
+    private ByteBuffer buffer;
+    private int base;
+
+    void moveTo(ByteBuffer buffer, int base) {
+        this.buffer = buffer;
+        this.base = base;
+    }
+
+    public byte attributes() {
+        return buffer.get(base + ATTRIBUTES_OFFSET);
+    }
+
+    public boolean isFree() {
+        return attributes() == 0x00;
+    }
+
+    public int firstBlock() {
+        return buffer.getInt(base + FIRST_BLOCK_OFFSET);
+    }
+
+    public int size() {
+        return buffer.getInt(base + SIZE_OFFSET);
+    }
+
+    // Compara o nome byte a byte, com a mesma semântica de new String(filename).trim()
+    public boolean nameEquals(byte[] name) {
+        if (name.length > FileSystemParam.FILENAME_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(base + i) != name[i]) {
+                return false;
+            }
+        }
+        for (int i = name.length; i < FileSystemParam.FILENAME_SIZE; i++) {
+            if ((buffer.get(base + i) & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Aloca uma String; usado apenas para exibição
+    public String name() {
+        byte[] filename = new byte[FileSystemParam.FILENAME_SIZE];
+        buffer.get(base, filename);
+        return new String(filename).trim();
+    }
+
+    public DirEntry toDirEntry() {
+        DirEntry entry = new DirEntry();
+        buffer.get(base, entry.filename);
+        entry.attributes = attributes();
+        entry.first_block = firstBlock();
+        entry.size = size();
+        return entry;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+// Índice em memória de um diretório com vários blocos: nome -> posição da entrada e
+// mapa das entradas livres. Posições são ordinais ao longo da cadeia de blocos
+// (ordinal do bloco * entradas por bloco + índice da entrada no bloco).
+public class DirectoryIndex {
+    private final int firstBlock;
+    private final int entriesPerBlock;
+    private int[] blocks = new int[4];
+    private int blockCount;
+    private final HashMap<Integer, Integer> ordinals = new HashMap<>();
+    private final HashMap<String, Integer> names = new HashMap<>();
+    private final BitSet free = new BitSet();
+
+    public DirectoryIndex(int firstBlock, int entriesPerBlock) {
+        this.firstBlock = firstBlock;
+        this.entriesPerBlock = entriesPerBlock;
+    }
+
+    public int getFirstBlock() {
+        return firstBlock;
+    }
+
+    public void addBlock(int block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+        }
+        blocks[blockCount] = block;
+        ordinals.put(block, blockCount);
+        free.set(blockCount * entriesPerBlock, (blockCount + 1) * entriesPerBlock);
+        blockCount++;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int lastBlock() {
+        return blocks[blockCount - 1];
+    }
+
+    public int position(int block, int entryIndex) {
+        return ordinals.get(block) * entriesPerBlock + entryIndex;
+    }
+
+    // Posição da entrada com esse nome, ou -1
+    public int find(String name) {
+        Integer position = names.get(name);
+        return position == null ? -1 : position;
+    }
+
+    public int firstFree() {
+        return free.nextSetBit(0);
+    }
+
+    public boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    public void update(int position, String name, boolean used) {
+        if (used) {
+            names.put(name, position);
+            free.clear(position);
+        } else {
+            names.remove(name, position);
+            free.set(position);
+        }
+    }
+
+    public int blockAt(int position) {
+        return blocks[position / entriesPerBlock];
+    }
+
+    public int entryIndex(int position) {
+        return position % entriesPerBlock;
+    }
+}
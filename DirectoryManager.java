@@ -1,37 +1,329 @@
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+// Um diretório é uma cadeia de blocos na FAT, começando pelo seu primeiro bloco.
+// Cada diretório tem uma trava de leitura/escrita (directoryLock): as operações de uma chamada só
+// a adquirem sozinhas; quem encadeia várias (listar, verificar e depois acrescentar) segura a trava
+// do diretório em volta delas. Nunca se pede a trava de escrita segurando só a de leitura.
 public class DirectoryManager {
+    private static final int MAX_INDEXED_DIRECTORIES = 64;
 
+    private final BlockDevice device;
+    private final BlockCache cache;
+    private final FATManager fatManager;
+    private final Journal journal;
+    private final Superblock superblock;
+    private final int entriesPerBlock;
+    private final StripedLocks locks = new StripedLocks();
+    private final DentryCache dentries = new DentryCache();
+    // Índices por nome dos diretórios com mais de um bloco, pelo primeiro bloco (LRU); o mapa é
+    // acessado sob o seu próprio monitor, e cada índice sob a trava do diretório
+    private final LinkedHashMap<Integer, DirectoryIndex> indexes =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, DirectoryIndex> eldest) {
+                    return size() > MAX_INDEXED_DIRECTORIES;
+                }
+            };
+    // Bloco atual de cada thread (lido uma única vez por varredura) e a visão sobre ele
+    private final ThreadLocal<Cursor> cursors = ThreadLocal.withInitial(Cursor::new);
+
+    private static final class Cursor {
+        final DirEntryView view = new DirEntryView();
+        ByteBuffer block;
+        int blockBase;
+    }
+
+    public DirectoryManager(BlockCache cache, FATManager fatManager, Journal journal) {
+        this.cache = cache;
+        this.device = cache.getDevice();
+        this.fatManager = fatManager;
+        this.journal = journal;
+        this.superblock = cache.getSuperblock();
+        this.entriesPerBlock = superblock.getDirEntries();
+    }
+
+    public ReentrantReadWriteLock directoryLock(int dirBlock) {
+        return locks.get(dirBlock);
+    }
+
+    // Próximo bloco da cadeia do diretório, ou -1 no último
+    public int nextBlock(int block) {
+        int next = fatManager.getFatValue(block);
+        return (next == FileSystemParam.FAT_EOF || next == FileSystemParam.FAT_FREE) ? -1 : next;
+    }
+
+    // Buffer do bloco inteiro e deslocamento da entrada 0: no modo mapeado é a própria imagem,
+    // caso contrário o bloco em cache
+    private Cursor loadBlock(int blockNumber) throws IOException {
+        Cursor cursor = cursors.get();
+        long position = superblock.position(blockNumber);
+        ByteBuffer segment = device.mappedSegment(position);
+        if (segment != null) {
+            cursor.block = segment;
+            cursor.blockBase = BlockDevice.segmentOffset(position);
+        } else {
+            cursor.block = cache.blockBuffer(blockNumber);
+            cursor.blockBase = 0;
+        }
+        return cursor;
+    }
+
+    private static DirEntryView view(Cursor cursor, int entryIndex) {
+        cursor.view.moveTo(cursor.block, cursor.blockBase + entryIndex * FileSystemParam.DIR_ENTRY_SIZE);
+        return cursor.view;
+    }
+
+    // Visão sobre a entrada, válida até a próxima chamada ao DirectoryManager na mesma thread;
+    // o chamador segura a trava do diretório enquanto a usa
+    public DirEntryView entryAt(int blockNumber, int entryIndex) throws IOException {
+        return view(loadBlock(blockNumber), entryIndex);
+    }
+
+    // Índice da entrada ocupada com esse nome (e atributo, se diferente de 0) em um único bloco, ou -1
+    public int findEntry(int blockNumber, byte[] name, int attributes) throws IOException {
+        Cursor cursor = loadBlock(blockNumber);
+        for (int i = 0; i < entriesPerBlock; i++) {
+            DirEntryView entry = view(cursor, i);
+            if (!entry.isFree() && (attributes == 0 || entry.attributes() == attributes) && entry.nameEquals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int findFreeEntry(int blockNumber) throws IOException {
+        Cursor cursor = loadBlock(blockNumber);
+        for (int i = 0; i < entriesPerBlock; i++) {
+            if (view(cursor, i).isFree()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isEmpty(int dirBlock) throws IOException {
+        ReentrantReadWriteLock.ReadLock lock = directoryLock(dirBlock).readLock();
+        lock.lock();
+        try {
+            for (int block = dirBlock; block != -1; block = nextBlock(block)) {
+                Cursor cursor = loadBlock(block);
+                for (int i = 0; i < entriesPerBlock; i++) {
+                    if (!view(cursor, i).isFree()) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Resolve um nome no diretório consultando primeiro o cache de dentries;
+    // retorna null se o nome não existir
+    public DentryCache.Dentry lookup(int dirBlock, String name) throws IOException {
+        FileSystemEvents.DirectoryLookup event = new FileSystemEvents.DirectoryLookup();
+        event.begin();
+        DentryCache.Dentry dentry = dentries.get(dirBlock, name);
+        boolean cached = dentry != null;
+        if (dentry == null) {
+            ReentrantReadWriteLock.ReadLock lock = directoryLock(dirBlock).readLock();
+            lock.lock();
+            try {
+                dentry = resolve(dirBlock, name);
+                dentries.put(dirBlock, name, dentry);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (event.shouldCommit()) {
+            event.directory = dirBlock;
+            event.name = name;
+            event.cached = cached;
+            event.found = dentry != DentryCache.NEGATIVE;
+            event.commit();
+        }
+        return dentry == DentryCache.NEGATIVE ? null : dentry;
+    }
+
+    private DentryCache.Dentry resolve(int dirBlock, String name) throws IOException {
+        int block = dirBlock;
+        int index;
+        if (nextBlock(dirBlock) == -1) {
+            // Diretório de um bloco só: a varredura linear de um bloco já é barata
+            index = findEntry(dirBlock, name.getBytes(), 0);
+        } else {
+            DirectoryIndex dirIndex = index(dirBlock);
+            int position = dirIndex.find(name);
+            if (position != -1) {
+                block = dirIndex.blockAt(position);
+                index = dirIndex.entryIndex(position);
+            } else {
+                index = -1;
+            }
+        }
+        if (index == -1) {
+            return DentryCache.NEGATIVE;
+        }
+        DirEntryView entry = entryAt(block, index);
+        return new DentryCache.Dentry(block, index, entry.firstBlock(), entry.attributes());
+    }
+
+    // Índice por nome do diretório, construído numa única varredura da cadeia
+    // (com a trava do diretório: dois leitores podem construí-lo ao mesmo tempo, e fica um deles)
+    private DirectoryIndex index(int dirBlock) throws IOException {
+        DirectoryIndex dirIndex = cachedIndex(dirBlock);
+        if (dirIndex != null) {
+            return dirIndex;
+        }
+        dirIndex = new DirectoryIndex(dirBlock, entriesPerBlock);
+        for (int block = dirBlock; block != -1; block = nextBlock(block)) {
+            dirIndex.addBlock(block);
+            Cursor cursor = loadBlock(block);
+            for (int i = 0; i < entriesPerBlock; i++) {
+                DirEntryView entry = view(cursor, i);
+                if (!entry.isFree()) {
+                    dirIndex.update(dirIndex.position(block, i), entry.name(), true);
+                }
+            }
+        }
+        synchronized (indexes) {
+            DirectoryIndex existing = indexes.putIfAbsent(dirBlock, dirIndex);
+            return existing != null ? existing : dirIndex;
+        }
+    }
+
+    private DirectoryIndex cachedIndex(int dirBlock) {
+        synchronized (indexes) {
+            return indexes.get(dirBlock);
+        }
+    }
+
+    // Grava a entrada numa posição livre do diretório, acrescentando um bloco à cadeia
+    // quando todos estão cheios. Retorna false se não houver bloco livre para crescer.
+    // O chamador salva a FAT.
+    public boolean addEntry(int dirBlock, DirEntry entry) throws IOException {
+        ReentrantReadWriteLock.WriteLock lock = directoryLock(dirBlock).writeLock();
+        lock.lock();
+        try {
+            return addEntryLocked(dirBlock, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean addEntryLocked(int dirBlock, DirEntry entry) throws IOException {
+        DirectoryIndex dirIndex = null;
+        int tail = dirBlock;
+        if (nextBlock(dirBlock) == -1) {
+            int index = findFreeEntry(dirBlock);
+            if (index != -1) {
+                writeDirEntry(dirBlock, dirBlock, index, entry);
+                return true;
+            }
+        } else {
+            dirIndex = index(dirBlock);
+            int position = dirIndex.firstFree();
+            if (position != -1) {
+                writeDirEntry(dirBlock, dirIndex.blockAt(position), dirIndex.entryIndex(position), entry);
+                return true;
+            }
+            tail = dirIndex.lastBlock();
+        }
+
+        int newBlock = fatManager.allocateBlock();
+        if (newBlock == -1) {
+            return false;
+        }
+        initializeBlock(newBlock);
+        fatManager.setFatValue(tail, newBlock);
+        fatManager.claim(newBlock, dirBlock);
+        if (dirIndex != null) {
+            dirIndex.addBlock(newBlock);
+        }
+        writeDirEntry(dirBlock, newBlock, 0, entry);
+        return true;
+    }
+
+    // Zera um bloco novo de diretório (registrado no journal, como as entradas)
+    public void initializeBlock(int block) throws IOException {
+        journal.logZero(block);
+        cache.writeBlock(block, new byte[superblock.getBlockSize()]);
+    }
+
+    // Esquece tudo o que foi resolvido dentro do diretório (removido, ou bloco reaproveitado)
+    public void forgetDirectory(int dirBlock) {
+        synchronized (indexes) {
+            indexes.remove(dirBlock);
+        }
+        dentries.invalidateDirectory(dirBlock);
+    }
+
+    // Diretório removido: os blocos da cadeia deixam de ser de diretório (chamar antes de liberá-la)
+    public void releaseDirectory(int dirBlock) {
+        for (int block = dirBlock; block != -1; block = nextBlock(block)) {
+            journal.revoke(block);
+        }
+        forgetDirectory(dirBlock);
+    }
+
+    public void clearCaches() {
+        synchronized (indexes) {
+            indexes.clear();
+        }
+        dentries.clear();
+    }
+
+    public DentryCache getDentryCache() {
+        return dentries;
+    }
+
+    // Cópia da entrada; o chamador segura a trava do diretório se ela puder mudar enquanto lê
     public DirEntry readDirEntry(int blockNumber, int entryIndex) {
-        DirEntry entry = new DirEntry();
-        try (RandomAccessFile fileStore = new RandomAccessFile("filesystem.dat", "r")) {
-            int position = blockNumber * FileSystemParam.BLOCK_SIZE + entryIndex * FileSystemParam.DIR_ENTRY_SIZE;
-            fileStore.seek(position);
-    
-            fileStore.readFully(entry.filename);
-            entry.attributes = fileStore.readByte();
-            entry.first_block = fileStore.readInt(); // Alterado para readInt
-            entry.size = fileStore.readInt();
-            return entry;
+        try {
+            return entryAt(blockNumber, entryIndex).toDirEntry();
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
-    
 
-    public void writeDirEntry(int blockNumber, int entryIndex, DirEntry entry) {
-        try (RandomAccessFile fileStore = new RandomAccessFile("filesystem.dat", "rw")) {
-            int position = blockNumber * FileSystemParam.BLOCK_SIZE + entryIndex * FileSystemParam.DIR_ENTRY_SIZE;
-            fileStore.seek(position);
 
-            fileStore.write(entry.filename);
-            fileStore.writeByte(entry.attributes);
-            fileStore.writeInt(entry.first_block); // Alterado para writeInt
-            fileStore.writeInt(entry.size);
+    // dirBlock é o primeiro bloco do diretório; blockNumber é o bloco da cadeia que contém a entrada
+    public void writeDirEntry(int dirBlock, int blockNumber, int entryIndex, DirEntry entry) {
+        ReentrantReadWriteLock.WriteLock lock = directoryLock(dirBlock).writeLock();
+        lock.lock();
+        try {
+            int offset = entryIndex * FileSystemParam.DIR_ENTRY_SIZE;
+            byte[] record = new byte[FileSystemParam.DIR_ENTRY_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            buffer.put(entry.filename);
+            buffer.put(entry.attributes);
+            buffer.putInt(entry.first_block); // Alterado para writeInt
+            buffer.putInt(entry.size);
+            // Registrada antes da escrita: o bloco fica preso no cache até o commit da transação
+            journal.logEntry(blockNumber, entryIndex, record);
+            cache.write(blockNumber, offset, record, 0, FileSystemParam.DIR_ENTRY_SIZE);
+            // Toda alteração de diretório passa por aqui: mantém o cache de dentries e o índice
+            // coerentes (uma entrada liberada vira negativa para o nome que ela tinha)
+            String name = new String(entry.filename).trim();
+            dentries.put(dirBlock, name, blockNumber, entryIndex, entry.first_block, entry.attributes);
+            DirectoryIndex dirIndex = cachedIndex(dirBlock);
+            if (dirIndex != null) {
+                dirIndex.update(dirIndex.position(blockNumber, entryIndex), name, entry.attributes != 0x00);
+            }
+            // Sem journal (e fora de um lote), a entrada vai para o disco na hora
+            if (!journal.isEnabled() && !fatManager.isDeferred()) {
+                device.flush(superblock.position(blockNumber) + offset, FileSystemParam.DIR_ENTRY_SIZE);
+            }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            lock.unlock();
         }
     }
 
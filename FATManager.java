@@ -1,67 +1,437 @@
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
 
+// Os métodos que alteram a FAT são sincronizados: alocar, liberar e encadear blocos e gravar a
+// FAT são atômicos em relação às outras threads (a trava é curta: só memória, exceto em
+// load/writeFAT). Seguir uma cadeia (getFatValue, chainLength) não usa a trava: as entradas são
+// lidas com acquire e gravadas com release, então leitores nunca esperam uns pelos outros nem por
+// quem aloca; a cadeia de um arquivo só muda sob a trava de escrita dele.
+// Em volumes com journal, as entradas alteradas vão para o journal a cada commit e a FAT só é
+// regravada no lugar no checkpoint (writeFAT); sem journal, saveFAT grava a cada operação.
+// A tabela de donos (BlockOwners) é mantida sob o mesmo monitor: quem aloca um bloco para uma
+// cadeia chama claim, e liberar blocos (freeBlock, freeChain) os tira da tabela.
 public class FATManager {
-    private int[] fat = new int[FileSystemParam.BLOCKS];
+    // Granularidade da persistência incremental: 512 bytes = 128 entradas de 4 bytes
+    private static final int SECTOR_ENTRIES = 512 / FileSystemParam.FAT_ENTRY_SIZE;
+    private static final int FREE = FileSystemParam.FAT_FREE;
+    private static final int EOF = FileSystemParam.FAT_EOF;
+    private static final VarHandle ENTRY = MethodHandles.arrayElementVarHandle(int[].class);
 
-    public void loadFAT(String file) {
-        try (RandomAccessFile fileStore = new RandomAccessFile(file, "rw")) {
-            fileStore.seek(0);
-            for (int i = 0; i < FileSystemParam.BLOCKS; i++) {
-                fat[i] = fileStore.readUnsignedShort();
+    private final BlockDevice device;
+    private final Superblock superblock;
+    private final int totalBlocks;
+    private final int rootBlock;
+    private final long fatPosition;
+    private final ByteBuffer buffer;
+    private final int[] fat;
+    // Bitmap de blocos livres (bit 1 = livre), mantido junto com a FAT
+    private final long[] freeMap;
+    private int freeCount;
+    private int rotor; // next-fit: próxima busca começa aqui
+    // Setores (de SECTOR_ENTRIES entradas) alterados desde o último writeFAT
+    private final BitSet dirtySectors;
+    private long sectorsWritten;
+    private long flushes;
+    // Entradas alteradas desde o último commit do journal (null se o volume não tem journal)
+    private final BitSet journalChanges;
+    // Lote sem journal (FileSystem.beginBatch): nas operações da thread dona do lote, saveFAT não
+    // grava e a FAT vai para o disco no fim do lote; as das outras threads gravam como sempre.
+    // Um lote por vez; a mesma thread pode aninhar (batchDepth).
+    private Thread batchOwner;
+    private int batchDepth;
+    private final BlockOwners owners;
+
+    public FATManager(BlockDevice device, Superblock superblock) {
+        this.device = device;
+        this.superblock = superblock;
+        this.totalBlocks = superblock.getBlocks();
+        this.rootBlock = superblock.getRootBlock();
+        this.fatPosition = superblock.position(superblock.getFatStart());
+        this.buffer = ByteBuffer.allocateDirect(superblock.getFatSize());
+        this.fat = new int[totalBlocks];
+        this.freeMap = new long[(totalBlocks + 63) / 64];
+        this.dirtySectors = new BitSet((totalBlocks + SECTOR_ENTRIES - 1) / SECTOR_ENTRIES);
+        this.rotor = rootBlock + 1;
+        this.journalChanges = superblock.getJournalBlocks() > 0 ? new BitSet(totalBlocks) : null;
+        this.owners = new BlockOwners(device.getFile(), totalBlocks);
+    }
+
+    public Superblock getSuperblock() {
+        return superblock;
+    }
+
+    // Marca o superbloco, a FAT e o diretório raiz como reservados e todos os demais blocos como livres
+    public synchronized void format() {
+        for (int i = 0; i < rootBlock; i++) {
+            fat[i] = FileSystemParam.FAT_RESERVED; // Superbloco e FAT
+        }
+        fat[rootBlock] = EOF; // Diretório raiz
+        for (int i = rootBlock + 1; i < totalBlocks; i++) {
+            fat[i] = FREE; // Blocos livres
+        }
+        rebuildFreeMap();
+        owners.clear();
+        owners.set(rootBlock, rootBlock);
+        markDirty(0, totalBlocks);
+        if (journalChanges != null) {
+            journalChanges.clear(); // Um volume novo não tem o que registrar
+        }
+    }
+
+    private void markDirty(int from, int to) {
+        dirtySectors.set(from / SECTOR_ENTRIES, (to + SECTOR_ENTRIES - 1) / SECTOR_ENTRIES);
+    }
+
+    private void clearDirty() {
+        dirtySectors.clear();
+    }
+
+    public synchronized boolean isDirty() {
+        return !dirtySectors.isEmpty();
+    }
+
+    public synchronized long getSectorsWritten() {
+        return sectorsWritten;
+    }
+
+    // Gravações da FAT no lugar (cada uma, uma escrita por sequência de setores alterados)
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    private void rebuildFreeMap() {
+        Arrays.fill(freeMap, 0L);
+        freeCount = 0;
+        for (int i = rootBlock + 1; i < totalBlocks; i++) {
+            if (fat[i] == FREE) {
+                freeMap[i >>> 6] |= 1L << i;
+                freeCount++;
+            }
+        }
+        rotor = rootBlock + 1;
+    }
+
+    public synchronized void loadFAT() {
+        try {
+            // Uma única leitura da FAT inteira (no modo mapeado, uma cópia da memória mapeada)
+            buffer.clear();
+            device.read(fatPosition, buffer);
+            buffer.flip();
+            buffer.asIntBuffer().get(fat);
+            rebuildFreeMap();
+            clearDirty();
+            if (journalChanges != null) {
+                journalChanges.clear();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public void saveFAT(String file) {
-        try (RandomAccessFile fileStore = new RandomAccessFile(file, "rw")) {
-            fileStore.seek(0);
-            for (int i = 0; i < FileSystemParam.BLOCKS; i++) {
-                fileStore.writeShort(fat[i]);
+    // Fim de uma operação: sem journal, grava as entradas alteradas (a não ser num lote); com
+    // journal, elas vão para o journal no commit da transação
+    public synchronized void saveFAT() {
+        if (journalChanges == null && batchOwner != Thread.currentThread()) {
+            writeFAT();
+        }
+    }
+
+    public synchronized void beginDeferred() {
+        Thread current = Thread.currentThread();
+        if (batchOwner != null && batchOwner != current) {
+            throw new IllegalStateException("A batch is already open in another thread");
+        }
+        batchOwner = current;
+        batchDepth++;
+    }
+
+    // Devolve se o lote acabou (não estava aninhado)
+    public synchronized boolean endDeferred() {
+        if (batchOwner != Thread.currentThread()) {
+            throw new IllegalStateException("No batch open in this thread");
+        }
+        if (--batchDepth > 0) {
+            return false;
+        }
+        batchOwner = null;
+        return true;
+    }
+
+    // Se a thread atual está num lote (as suas gravações ficam para o fim dele)
+    public synchronized boolean isDeferred() {
+        return batchOwner == Thread.currentThread();
+    }
+
+    // Grava apenas os setores da FAT que mudaram: uma escrita para cada sequência contígua de
+    // setores alterados, de modo que mudanças nas duas pontas não regravam a tabela do meio
+    public synchronized void writeFAT() {
+        if (!isDirty()) {
+            return;
+        }
+        try {
+            for (int sector = dirtySectors.nextSetBit(0); sector != -1;
+                    sector = dirtySectors.nextSetBit(sector)) {
+                int end = dirtySectors.nextClearBit(sector);
+                writeEntries(sector * SECTOR_ENTRIES, Math.min(totalBlocks, end * SECTOR_ENTRIES));
+                sectorsWritten += end - sector;
+                sector = end;
             }
+            flushes++;
+            clearDirty();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public int allocateBlock() {
-        for (int i = FileSystemParam.ROOT_BLOCK + 1; i < fat.length; i++) {
-            if (fat[i] == 0x0000) { // Bloco livre
-                fat[i] = 0x7fff; // Marca como fim de arquivo
-                return i;
+    private void writeEntries(int from, int to) throws IOException {
+        FileSystemEvents.FatSave event = new FileSystemEvents.FatSave();
+        event.begin();
+        buffer.clear();
+        buffer.asIntBuffer().put(fat, from, to - from);
+        buffer.limit((to - from) * FileSystemParam.FAT_ENTRY_SIZE);
+        long position = fatPosition + (long) from * FileSystemParam.FAT_ENTRY_SIZE;
+        device.write(position, buffer);
+        device.flush(position, (to - from) * FileSystemParam.FAT_ENTRY_SIZE);
+        if (event.shouldCommit()) {
+            event.firstEntry = from;
+            event.bytes = (to - from) * FileSystemParam.FAT_ENTRY_SIZE;
+            event.commit();
+        }
+    }
+
+    public synchronized int allocateBlock() {
+        FileSystemEvents.FatAllocation event = new FileSystemEvents.FatAllocation();
+        event.begin();
+        int block = -1; // Sem blocos livres
+        if (freeCount > 0) {
+            block = findFree(rotor);
+            if (block == -1) {
+                block = findFree(rootBlock + 1);
             }
+            setEntry(block, EOF); // Marca como fim de arquivo
+            rotor = block + 1 < totalBlocks ? block + 1 : rootBlock + 1;
+        }
+        commit(event, block, 1);
+        return block;
+    }
+
+    private static void commit(FileSystemEvents.FatAllocation event, int block, int count) {
+        if (event.shouldCommit()) {
+            event.block = block;
+            event.count = count;
+            event.commit();
         }
-        return -1; // Sem blocos livres
     }
 
-    public void freeBlock(int block) {
-        fat[block] = 0x0000; // Marca como livre
+    // Aloca 'count' blocos já encadeados na FAT, preferindo uma única sequência contígua
+    // (first-fit a partir do rotor). Se o volume estiver fragmentado demais, junta as
+    // sequências livres na ordem em que aparecem. Retorna null, sem alocar nada, se faltar espaço.
+    public synchronized int[] allocateBlocks(int count) {
+        FileSystemEvents.FatAllocation event = new FileSystemEvents.FatAllocation();
+        event.begin();
+        if (count <= 0 || count > freeCount) {
+            commit(event, -1, count);
+            return null;
+        }
+        int[] blocks = new int[count];
+        int start = findRun(rotor, totalBlocks, count);
+        if (start == -1) {
+            start = findRun(rootBlock + 1, rotor, count);
+        }
+        if (start != -1) {
+            for (int i = 0; i < count; i++) {
+                blocks[i] = start + i;
+            }
+        } else {
+            int filled = 0;
+            int from = rootBlock + 1;
+            while (filled < count) {
+                int runStart = findFree(from);
+                int runEnd = runEnd(runStart, runStart + count - filled);
+                for (int b = runStart; b < runEnd; b++) {
+                    blocks[filled++] = b;
+                }
+                from = runEnd;
+            }
+        }
+        for (int i = 0; i < count - 1; i++) {
+            setEntry(blocks[i], blocks[i + 1]);
+        }
+        setEntry(blocks[count - 1], EOF); // Marca como fim de arquivo
+        int last = blocks[count - 1];
+        rotor = last + 1 < totalBlocks ? last + 1 : rootBlock + 1;
+        commit(event, blocks[0], count);
+        return blocks;
     }
 
-    public void freeChain(int startBlock) {
+    // Início da primeira sequência de 'count' blocos livres contida em [from, to), ou -1
+    private int findRun(int from, int to, int count) {
+        while (from < to) {
+            int start = findFree(from);
+            if (start == -1 || start >= to) {
+                return -1;
+            }
+            int end = runEnd(start, start + count);
+            if (end - start == count) {
+                return start;
+            }
+            from = end;
+        }
+        return -1;
+    }
+
+    // Fim (exclusivo) da sequência de blocos livres que começa em 'start', limitada a 'limit'
+    private int runEnd(int start, int limit) {
+        limit = Math.min(limit, totalBlocks);
+        int block = start;
+        while (block < limit) {
+            long used = ~freeMap[block >>> 6] & (-1L << block);
+            if (used != 0) {
+                int end = ((block >>> 6) << 6) + Long.numberOfTrailingZeros(used);
+                return Math.min(end, limit);
+            }
+            block = ((block >>> 6) + 1) << 6;
+        }
+        return limit;
+    }
+
+    // Primeiro bloco livre a partir de 'from', examinando 64 blocos por palavra do bitmap
+    private int findFree(int from) {
+        if (from >= totalBlocks) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = freeMap[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                int block = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return block < totalBlocks ? block : -1;
+            }
+            if (++word == freeMap.length) {
+                return -1;
+            }
+            bits = freeMap[word];
+        }
+    }
+
+    // Toda alteração da FAT passa por aqui para manter o bitmap e o contador em dia
+    private void setEntry(int index, int value) {
+        int old = fat[index];
+        if (old == value) {
+            return;
+        }
+        ENTRY.setRelease(fat, index, value);
+        markDirty(index, index + 1);
+        if (journalChanges != null) {
+            journalChanges.set(index);
+        }
+        if (index <= rootBlock || (old == FREE) == (value == FREE)) {
+            return;
+        }
+        if (value == FREE) {
+            freeMap[index >>> 6] |= 1L << index;
+            freeCount++;
+        } else {
+            freeMap[index >>> 6] &= ~(1L << index);
+            freeCount--;
+        }
+    }
+
+    public synchronized void freeBlock(int block) {
+        setEntry(block, FREE); // Marca como livre
+        owners.set(block, 0);
+    }
+
+    public synchronized void freeChain(int startBlock) {
         int currentBlock = startBlock;
-        while (currentBlock != 0x7fff && currentBlock != 0x0000) {
+        while (currentBlock != EOF && currentBlock != FREE) {
             int nextBlock = fat[currentBlock];
-            fat[currentBlock] = 0x0000;
-            if (nextBlock == 0x7fff || nextBlock == 0x0000) {
+            setEntry(currentBlock, FREE);
+            owners.set(currentBlock, 0);
+            if (nextBlock == EOF || nextBlock == FREE) {
                 break;
             }
             currentBlock = nextBlock;
         }
     }
-    
+
+    public int chainLength(int startBlock) {
+        int length = 0;
+        int currentBlock = startBlock;
+        while (currentBlock != EOF && currentBlock != FREE && length < totalBlocks) {
+            length++;
+            currentBlock = getFatValue(currentBlock);
+        }
+        return length;
+    }
+
+    public synchronized int getFreeBlocks() {
+        return freeCount;
+    }
+
+    public synchronized int getUsedBlocks() {
+        return totalBlocks - freeCount;
+    }
+
+    // Cópia da FAT inteira, para quem vai percorrê-la sem a trava
+    public synchronized int[] copyFAT() {
+        return fat.clone();
+    }
 
     public int getFatValue(int index) {
-        return fat[index];
+        return (int) ENTRY.getAcquire(fat, index);
+    }
+
+    public synchronized void setFatValue(int index, int value) {
+        setEntry(index, value);
+    }
+
+    // Os blocos passam a pertencer à cadeia que começa em head
+    public synchronized void claim(int block, int head) {
+        owners.set(block, head);
+    }
+
+    public synchronized void claim(int[] blocks, int head) {
+        for (int block : blocks) {
+            owners.set(block, head);
+        }
+    }
+
+    public synchronized int getOwner(int block) {
+        return owners.get(block);
+    }
+
+    public synchronized int[] copyOwners() {
+        return owners.copy();
+    }
+
+    // Tabela reconstruída a partir da árvore (ConsistencyChecker), gravada em seguida
+    public synchronized void replaceOwners(int[] table) throws IOException {
+        owners.replace(table);
+        owners.save();
+    }
+
+    // false se a tabela gravada não serve (ausente, de outra geometria ou não fechada limpa)
+    public synchronized boolean loadOwners() throws IOException {
+        return owners.load();
+    }
+
+    public synchronized void saveOwners() throws IOException {
+        owners.save();
     }
 
-    public void setFatValue(int index, int value) {
-        fat[index] = value;
+    public synchronized boolean hasJournalChanges() {
+        return journalChanges != null && !journalChanges.isEmpty();
     }
 
-    public int[] getFat() {
-        return fat;
+    // Entradas alteradas desde a última chamada, para o commit do journal
+    public synchronized BitSet takeJournalChanges() {
+        BitSet changes = (BitSet) journalChanges.clone();
+        journalChanges.clear();
+        return changes;
     }
 }
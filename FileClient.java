@@ -0,0 +1,134 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Cliente de um FileServer: as mesmas operações da API FileSystem, com os mesmos tipos de exceção.
+// Uma conexão atende um pedido de cada vez; threads que quiserem paralelismo abrem um cliente cada.
+public class FileClient implements Closeable {
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public FileClient(SocketAddress address) throws IOException {
+        channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    public synchronized void mkdir(String path) throws IOException {
+        out.writeByte(FileProtocol.MKDIR);
+        out.writeUTF(path);
+        response();
+    }
+
+    public synchronized void create(String path) throws IOException {
+        out.writeByte(FileProtocol.CREATE);
+        out.writeUTF(path);
+        response();
+    }
+
+    public synchronized void unlink(String path) throws IOException {
+        out.writeByte(FileProtocol.UNLINK);
+        out.writeUTF(path);
+        response();
+    }
+
+    // Substitui o conteúdo do arquivo
+    public synchronized void write(String path, byte[] data) throws IOException {
+        out.writeByte(FileProtocol.WRITE);
+        out.writeUTF(path);
+        FileProtocol.writeData(out, data, 0, data.length);
+        response();
+    }
+
+    public synchronized void append(String path, byte[] data) throws IOException {
+        out.writeByte(FileProtocol.APPEND);
+        out.writeUTF(path);
+        FileProtocol.writeData(out, data, 0, data.length);
+        response();
+    }
+
+    // Até length bytes a partir de offset; vazio no fim do arquivo
+    public synchronized byte[] read(String path, long offset, int length) throws IOException {
+        out.writeByte(FileProtocol.PREAD);
+        out.writeUTF(path);
+        out.writeLong(offset);
+        out.writeInt(length);
+        response();
+        return FileProtocol.readData(in);
+    }
+
+    public synchronized void write(String path, long offset, byte[] data) throws IOException {
+        out.writeByte(FileProtocol.PWRITE);
+        out.writeUTF(path);
+        out.writeLong(offset);
+        FileProtocol.writeData(out, data, 0, data.length);
+        response();
+    }
+
+    public synchronized FileStat stat(String path) throws IOException {
+        out.writeByte(FileProtocol.STAT);
+        out.writeUTF(path);
+        response();
+        return FileProtocol.readStat(in);
+    }
+
+    public synchronized List<FileStat> list(String path) throws IOException {
+        out.writeByte(FileProtocol.LIST);
+        out.writeUTF(path);
+        response();
+        int count = in.readInt();
+        List<FileStat> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(FileProtocol.readStat(in));
+        }
+        return entries;
+    }
+
+    public synchronized void sync() throws IOException {
+        out.writeByte(FileProtocol.SYNC);
+        response();
+    }
+
+    public synchronized List<String> check() throws IOException {
+        out.writeByte(FileProtocol.CHECK);
+        response();
+        int count = in.readInt();
+        List<String> problems = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            problems.add(in.readUTF());
+        }
+        return problems;
+    }
+
+    // Envia o pedido e lê o status da resposta, relançando o erro do servidor
+    private void response() throws IOException {
+        out.flush();
+        if (in.readByte() == FileProtocol.STATUS_ERROR) {
+            throw FileProtocol.readError(in);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,41 @@
+// Estado de um arquivo em uso: posição da entrada no diretório, cópia da entrada (primeiro bloco e
+// tamanho) e mapa de blocos, de onde sai o último bloco. Todos os handles abertos para o mesmo
+// arquivo, e as escritas feitas pelo caminho enquanto ele está aberto, compartilham este objeto.
+public class FileHandle {
+    final int dirBlock;
+    final int entryBlock;
+    final int entryIndex;
+    final DirEntry entry;
+    final String path;
+    BlockMap map;
+    int refs;
+
+    FileHandle(int dirBlock, int entryBlock, int entryIndex, DirEntry entry, String path) {
+        this.dirBlock = dirBlock;
+        this.entryBlock = entryBlock;
+        this.entryIndex = entryIndex;
+        this.entry = entry;
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getSize() {
+        return entry.size;
+    }
+
+    public int getFirstBlock() {
+        return entry.first_block;
+    }
+
+    // Chave da entrada de diretório (bloco, índice) na tabela de arquivos abertos
+    static long slot(int entryBlock, int entryIndex) {
+        return ((long) entryBlock << 32) | entryIndex;
+    }
+
+    static long slot(FileHandle file) {
+        return slot(file.entryBlock, file.entryIndex);
+    }
+}
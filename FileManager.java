@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Acesso ao conteúdo dos arquivos: leitura e escrita em fluxo e em deslocamentos arbitrários.
+// Mantém os mapas de blocos dos arquivos usados recentemente, pelo primeiro bloco (LRU); quem
+// libera ou troca a cadeia de um arquivo chama forget. Também guarda a tabela de handles abertos.
+// As tabelas são protegidas pelo monitor do FileManager; o conteúdo de cada arquivo, pela trava do
+// arquivo (lockFile), que quem chama pread, pwrite e os fluxos deve segurar.
+public class FileManager {
+    private static final int MAX_CACHED_MAPS = 64;
+
+    private final BlockCache cache;
+    private final FATManager fatManager;
+    private final DirectoryManager dirManager;
+    private final int blockSize;
+    private final LinkedHashMap<Integer, BlockMap> maps =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, BlockMap> eldest) {
+                    return size() > MAX_CACHED_MAPS;
+                }
+            };
+    private final byte[] zeros;
+    // Arquivos abertos pela entrada de diretório, e handles numéricos -> arquivo
+    private final HashMap<Long, FileHandle> openFiles = new HashMap<>();
+    private final TreeMap<Integer, FileHandle> handles = new TreeMap<>();
+    private int nextHandle = 1;
+    // Travas por arquivo (posição da entrada de diretório), criadas sob demanda e descartadas quando
+    // ninguém mais as usa: arquivos diferentes nunca compartilham trava
+    private final HashMap<Long, FileLock> fileLocks = new HashMap<>();
+
+    private static final class FileLock {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        int users;
+    }
+
+    public FileManager(BlockCache cache, FATManager fatManager, DirectoryManager dirManager) {
+        this.cache = cache;
+        this.fatManager = fatManager;
+        this.dirManager = dirManager;
+        this.blockSize = cache.getSuperblock().getBlockSize();
+        this.zeros = new byte[blockSize];
+    }
+
+    public BlockCache getCache() {
+        return cache;
+    }
+
+    public FATManager getFatManager() {
+        return fatManager;
+    }
+
+    public DirectoryManager getDirManager() {
+        return dirManager;
+    }
+
+    // Mapa de blocos do arquivo, percorrendo a cadeia só na primeira vez
+    public synchronized BlockMap blockMap(int firstBlock) throws IOException {
+        BlockMap map = maps.get(firstBlock);
+        if (map == null) {
+            map = BlockMap.build(fatManager, firstBlock);
+            maps.put(firstBlock, map);
+        }
+        return map;
+    }
+
+    synchronized BlockMap blockMap(FileHandle file) throws IOException {
+        if (file.map == null) {
+            file.map = blockMap(file.entry.first_block);
+        }
+        return file.map;
+    }
+
+    synchronized void register(int firstBlock, BlockMap map) {
+        maps.put(firstBlock, map);
+    }
+
+    // A cadeia que começa em firstBlock foi liberada ou substituída
+    public synchronized void forget(int firstBlock) {
+        maps.remove(firstBlock);
+    }
+
+    // Arquivo da entrada 'dentry' do diretório dirBlock: o que já está aberto, se houver
+    // (para que as escritas pelo caminho mantenham os handles em dia), ou um novo, não registrado
+    public synchronized FileHandle file(int dirBlock, DentryCache.Dentry dentry, String path) {
+        FileHandle file = openFiles.get(FileHandle.slot(dentry.entryBlock, dentry.entryIndex));
+        if (file == null) {
+            file = new FileHandle(dirBlock, dentry.entryBlock, dentry.entryIndex,
+                    dirManager.readDirEntry(dentry.entryBlock, dentry.entryIndex), path);
+        }
+        return file;
+    }
+
+    // Registra o arquivo como aberto e devolve um novo handle para ele
+    public synchronized int open(FileHandle file) {
+        if (file.refs++ == 0) {
+            openFiles.put(FileHandle.slot(file.entryBlock, file.entryIndex), file);
+        }
+        int handle = nextHandle++;
+        handles.put(handle, file);
+        return handle;
+    }
+
+    public synchronized FileHandle get(int handle) throws IOException {
+        FileHandle file = handles.get(handle);
+        if (file == null) {
+            throw new IOException("Invalid file handle: " + handle);
+        }
+        return file;
+    }
+
+    public synchronized void close(int handle) throws IOException {
+        FileHandle file = get(handle);
+        handles.remove(handle);
+        if (--file.refs == 0) {
+            openFiles.remove(FileHandle.slot(file.entryBlock, file.entryIndex));
+        }
+    }
+
+    public synchronized boolean isOpen(DentryCache.Dentry dentry) {
+        return openFiles.containsKey(FileHandle.slot(dentry.entryBlock, dentry.entryIndex));
+    }
+
+    // Cópia da tabela no momento da chamada
+    public synchronized Map<Integer, FileHandle> getHandles() {
+        return Collections.unmodifiableMap(new TreeMap<>(handles));
+    }
+
+    // Trava o arquivo da entrada 'slot' (FileHandle.slot) para leitura (compartilhada) ou escrita
+    public void lockFile(long slot, boolean write) {
+        FileLock fileLock;
+        synchronized (this) {
+            fileLock = fileLocks.computeIfAbsent(slot, s -> new FileLock());
+            fileLock.users++;
+        }
+        if (write && fileLock.lock.getReadHoldCount() > 0) {
+            // Pedir a escrita segurando a leitura travaria a thread para sempre
+            releaseFileLock(slot, fileLock);
+            throw new IllegalStateException("File is being read by this thread");
+        }
+        if (write) {
+            fileLock.lock.writeLock().lock();
+        } else {
+            fileLock.lock.readLock().lock();
+        }
+    }
+
+    public void unlockFile(long slot, boolean write) {
+        FileLock fileLock;
+        synchronized (this) {
+            fileLock = fileLocks.get(slot);
+        }
+        if (write) {
+            fileLock.lock.writeLock().unlock();
+        } else {
+            fileLock.lock.readLock().unlock();
+        }
+        releaseFileLock(slot, fileLock);
+    }
+
+    private synchronized void releaseFileLock(long slot, FileLock fileLock) {
+        if (--fileLock.users == 0) {
+            fileLocks.remove(slot);
+        }
+    }
+
+    public ChainOutputStream openWriter(FileHandle file, boolean append, long expectedBytes) throws IOException {
+        return new ChainOutputStream(this, file, append, expectedBytes);
+    }
+
+    public ChainInputStream openReader(FileHandle file) {
+        return new ChainInputStream(cache, fatManager, file.entry.first_block, file.entry.size);
+    }
+
+    // Lê até len bytes a partir de offset; retorna quantos foram lidos, ou -1 se offset está no fim
+    public int pread(FileHandle file, long offset, byte[] b, int off, int len) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        }
+        if (offset >= file.entry.size) {
+            return -1;
+        }
+        int n = (int) Math.min(len, file.entry.size - offset);
+        transfer(blockMap(file), offset, b, off, n, false);
+        return n;
+    }
+
+    // Grava len bytes a partir de offset, estendendo o arquivo se preciso (um buraco entre o fim
+    // atual e offset é preenchido com zeros), e atualiza o tamanho na entrada de diretório
+    public void pwrite(FileHandle file, long offset, byte[] b, int off, int len) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset: " + offset);
+        }
+        long end = offset + len;
+        if (end > Integer.MAX_VALUE) {
+            throw new FileSystemException(file.path, null, "File too large");
+        }
+        DirEntry entry = file.entry;
+        BlockMap map = blockMap(file);
+        int missing = (int) ((end + blockSize - 1) / blockSize) - map.count();
+        if (missing > 0) {
+            int[] blocks = fatManager.allocateBlocks(missing);
+            if (blocks == null) {
+                throw new NoSpaceException(file.path);
+            }
+            fatManager.setFatValue(map.last(), blocks[0]);
+            fatManager.claim(blocks, map.blockAt(0));
+            for (int block : blocks) {
+                map.add(block);
+            }
+        }
+        for (long position = entry.size; position < offset; ) {
+            int n = (int) Math.min(offset - position, blockSize - position % blockSize);
+            transfer(map, position, zeros, 0, n, true);
+            position += n;
+        }
+        transfer(map, offset, b, off, len, true);
+        if (end > entry.size) {
+            entry.size = (int) end;
+            dirManager.writeDirEntry(file.dirBlock, file.entryBlock, file.entryIndex, entry);
+        }
+        fatManager.saveFAT();
+    }
+
+    // Copia entre o buffer e o arquivo, uma sequência de blocos contíguos por vez
+    private void transfer(BlockMap map, long position, byte[] b, int off, int len, boolean write)
+            throws IOException {
+        while (len > 0) {
+            int index = (int) (position / blockSize);
+            int inBlock = (int) (position % blockSize);
+            int run = map.contiguous(index, (int) (((long) inBlock + len + blockSize - 1) / blockSize));
+            int n = (int) Math.min(len, (long) run * blockSize - inBlock);
+            if (write) {
+                cache.write(map.blockAt(index), inBlock, b, off, n);
+            } else {
+                cache.read(map.blockAt(index), inBlock, b, off, n);
+            }
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+
+// Protocolo binário entre FileServer e FileClient. Cada pedido é um byte de operação seguido dos
+// argumentos; cada resposta começa com STATUS_OK (e os resultados) ou STATUS_ERROR (tipo do erro,
+// caminho e motivo). Inteiros em big-endian (DataOutputStream), textos em UTF modificado
+// (writeUTF) e dados como um int com o tamanho seguido dos bytes.
+//
+//   MKDIR, CREATE, UNLINK  path                       -> -
+//   WRITE, APPEND          path, dados                -> -
+//   PREAD                  path, long offset, int len -> dados (vazio no fim do arquivo)
+//   PWRITE                 path, long offset, dados   -> -
+//   STAT                   path                       -> stat
+//   LIST                   path                       -> int n, n x stat
+//   SYNC                   -                          -> -
+//   CHECK                  -                          -> int n, n x UTF
+//
+// stat = UTF nome, boolean diretório, int tamanho, int primeiro bloco
+public final class FileProtocol {
+    static final byte MKDIR = 1;
+    static final byte CREATE = 2;
+    static final byte UNLINK = 3;
+    static final byte WRITE = 4;
+    static final byte APPEND = 5;
+    static final byte PREAD = 6;
+    static final byte PWRITE = 7;
+    static final byte STAT = 8;
+    static final byte LIST = 9;
+    static final byte SYNC = 10;
+    static final byte CHECK = 11;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    // Tipos de erro, para o cliente relançar a mesma exceção da API
+    static final byte ERROR_OTHER = 0;
+    static final byte ERROR_NO_SUCH_FILE = 1;
+    static final byte ERROR_ALREADY_EXISTS = 2;
+    static final byte ERROR_NOT_EMPTY = 3;
+    static final byte ERROR_NOT_DIRECTORY = 4;
+    static final byte ERROR_NO_SPACE = 5;
+
+    // Maior bloco de dados aceito em um pedido ou resposta
+    static final int MAX_DATA = 16 * 1024 * 1024;
+
+    private FileProtocol() {
+    }
+
+    static void writeData(DataOutputStream out, byte[] data, int off, int len) throws IOException {
+        out.writeInt(len);
+        out.write(data, off, len);
+    }
+
+    static byte[] readData(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_DATA) {
+            throw new StreamCorruptedException("Invalid data length: " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    static void writeStat(DataOutputStream out, FileStat stat) throws IOException {
+        out.writeUTF(stat.name);
+        out.writeBoolean(stat.directory);
+        out.writeInt(stat.size);
+        out.writeInt(stat.firstBlock);
+    }
+
+    static FileStat readStat(DataInputStream in) throws IOException {
+        return new FileStat(in.readUTF(), in.readBoolean(), in.readInt(), in.readInt());
+    }
+
+    static void writeError(DataOutputStream out, FileSystemException e) throws IOException {
+        byte type = ERROR_OTHER;
+        if (e instanceof NoSuchFileException) {
+            type = ERROR_NO_SUCH_FILE;
+        } else if (e instanceof FileAlreadyExistsException) {
+            type = ERROR_ALREADY_EXISTS;
+        } else if (e instanceof DirectoryNotEmptyException) {
+            type = ERROR_NOT_EMPTY;
+        } else if (e instanceof NotDirectoryException) {
+            type = ERROR_NOT_DIRECTORY;
+        } else if (e instanceof NoSpaceException) {
+            type = ERROR_NO_SPACE;
+        }
+        writeError(out, type, e.getFile(), e.getReason());
+    }
+
+    static void writeError(DataOutputStream out, byte type, String file, String reason) throws IOException {
+        out.writeByte(STATUS_ERROR);
+        out.writeByte(type);
+        out.writeUTF(file == null ? "" : file);
+        out.writeUTF(reason == null ? "" : reason);
+    }
+
+    // Lê o erro que segue STATUS_ERROR e o devolve como a exceção correspondente da API
+    static FileSystemException readError(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String file = in.readUTF();
+        String reason = in.readUTF();
+        if (reason.isEmpty()) {
+            reason = null;
+        }
+        switch (type) {
+            case ERROR_NO_SUCH_FILE:
+                return new NoSuchFileException(file, null, reason);
+            case ERROR_ALREADY_EXISTS:
+                return new FileAlreadyExistsException(file, null, reason);
+            case ERROR_NOT_EMPTY:
+                return new DirectoryNotEmptyException(file);
+            case ERROR_NOT_DIRECTORY:
+                return new NotDirectoryException(file);
+            case ERROR_NO_SPACE:
+                return new NoSpaceException(file);
+            default:
+                return new FileSystemException(file, null, reason);
+        }
+    }
+}
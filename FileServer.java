@@ -0,0 +1,326 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Servidor de arquivos: expõe um FileSystem já montado a vários clientes por um socket TCP ou
+// Unix-domain, com o protocolo de FileProtocol. Cada sessão roda em uma thread própria (virtual,
+// quando a JVM oferece) e todas compartilham o mesmo volume e cache. Como o diretório atual é
+// um só para o FileSystem, os caminhos recebidos são sempre tratados como absolutos.
+public class FileServer implements Closeable {
+    private final FileSystem fs;
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final Path socketFile; // Arquivo do socket Unix-domain, removido no close
+    private final ExecutorService sessions = newSessionExecutor();
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public FileServer(FileSystem fs, SocketAddress address) throws IOException {
+        this.fs = fs;
+        if (address instanceof UnixDomainSocketAddress) {
+            socketFile = ((UnixDomainSocketAddress) address).getPath();
+            Files.deleteIfExists(socketFile); // Sobra de um servidor anterior
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            socketFile = null;
+            server = ServerSocketChannel.open();
+        }
+        try {
+            server.bind(address);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        this.address = server.getLocalAddress();
+    }
+
+    // "unix:/caminho" para um socket Unix-domain, "host:porta" ou só "porta" (em localhost) para TCP
+    public static SocketAddress parseAddress(String spec) {
+        if (spec.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(spec.substring("unix:".length()));
+        }
+        int colon = spec.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress("localhost", Integer.parseInt(spec));
+        }
+        return new InetSocketAddress(spec.substring(0, colon), Integer.parseInt(spec.substring(colon + 1)));
+    }
+
+    // Uma thread virtual por sessão no Java 21+; nas versões anteriores, um pool que cresce sob demanda
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "fs-session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    // Aceita clientes até o close; cada um é atendido em uma sessão própria
+    public void serve() throws IOException {
+        while (!closed) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (AsynchronousCloseException e) {
+                break; // close() chamado por outra thread
+            }
+            clients.add(client);
+            sessions.execute(() -> session(client));
+        }
+    }
+
+    // Roda serve() em uma thread própria e retorna em seguida
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            try {
+                serve();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }, "fs-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void session(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new ClientOutput(Channels.newOutputStream(client))));
+            while (true) {
+                int op = in.read();
+                if (op == -1) {
+                    break; // Cliente encerrou a sessão
+                }
+                if (!handle((byte) op, in, out)) {
+                    out.flush();
+                    break;
+                }
+                out.flush();
+            }
+        } catch (EOFException | AsynchronousCloseException e) {
+            // Cliente desconectou no meio de um pedido, ou o servidor está fechando
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } catch (UncheckedIOException e) {
+            // Falha ao responder (ClientOutput)
+            if (!closed && !(e.getCause() instanceof AsynchronousCloseException)) {
+                e.getCause().printStackTrace();
+            }
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    // Executa um pedido e escreve a resposta; retorna false se a sessão deve ser encerrada.
+    // O pedido é lido inteiro antes de ser executado: só um pedido mal formado ou a conexão caída
+    // encerram a sessão, e qualquer erro do sistema de arquivos (um arquivo corrompido, uma falha
+    // de leitura do dispositivo) vira uma resposta de erro.
+    private boolean handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        String path;
+        long offset = 0;
+        int length = 0;
+        byte[] data = null;
+        switch (op) {
+            case FileProtocol.SYNC:
+            case FileProtocol.CHECK:
+                path = null;
+                break;
+            case FileProtocol.MKDIR:
+            case FileProtocol.CREATE:
+            case FileProtocol.UNLINK:
+            case FileProtocol.WRITE:
+            case FileProtocol.APPEND:
+            case FileProtocol.PREAD:
+            case FileProtocol.PWRITE:
+            case FileProtocol.STAT:
+            case FileProtocol.LIST:
+                path = absolute(in.readUTF());
+                break;
+            default:
+                FileProtocol.writeError(out, FileProtocol.ERROR_OTHER, null, "Unknown operation " + op);
+                return false; // Não há como saber onde termina o pedido
+        }
+        switch (op) {
+            case FileProtocol.WRITE:
+            case FileProtocol.APPEND:
+                data = FileProtocol.readData(in);
+                break;
+            case FileProtocol.PREAD:
+                offset = in.readLong();
+                length = in.readInt();
+                break;
+            case FileProtocol.PWRITE:
+                offset = in.readLong();
+                data = FileProtocol.readData(in);
+                break;
+            default:
+                break;
+        }
+        try {
+            switch (op) {
+                case FileProtocol.MKDIR:
+                    fs.mkdir(path);
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    break;
+                case FileProtocol.CREATE:
+                    fs.create(path);
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    break;
+                case FileProtocol.UNLINK:
+                    fs.unlink(path);
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    break;
+                case FileProtocol.WRITE:
+                    fs.write(path, ByteBuffer.wrap(data));
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    break;
+                case FileProtocol.APPEND:
+                    fs.append(path, ByteBuffer.wrap(data));
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    break;
+                case FileProtocol.PREAD:
+                    readAt(path, offset, length, out);
+                    break;
+                case FileProtocol.PWRITE:
+                    fs.write(path, offset, ByteBuffer.wrap(data));
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    break;
+                case FileProtocol.STAT: {
+                    FileStat stat = fs.stat(path);
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    FileProtocol.writeStat(out, stat);
+                    break;
+                }
+                case FileProtocol.LIST: {
+                    List<FileStat> entries = fs.list(path);
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    out.writeInt(entries.size());
+                    for (FileStat entry : entries) {
+                        FileProtocol.writeStat(out, entry);
+                    }
+                    break;
+                }
+                case FileProtocol.SYNC:
+                    fs.sync();
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    break;
+                default: { // CHECK
+                    List<String> problems = fs.check();
+                    out.writeByte(FileProtocol.STATUS_OK);
+                    out.writeInt(problems.size());
+                    for (String problem : problems) {
+                        out.writeUTF(problem);
+                    }
+                }
+            }
+        } catch (FileSystemException e) {
+            FileProtocol.writeError(out, e);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            FileProtocol.writeError(out, FileProtocol.ERROR_OTHER, path, e.getMessage());
+        }
+        return true;
+    }
+
+    private void readAt(String path, long offset, int length, DataOutputStream out) throws IOException {
+        if (length < 0 || length > FileProtocol.MAX_DATA) {
+            FileProtocol.writeError(out, FileProtocol.ERROR_OTHER, path, "Invalid length");
+            return;
+        }
+        ByteBuffer dst = ByteBuffer.allocate(length);
+        int n = fs.read(path, offset, dst);
+        out.writeByte(FileProtocol.STATUS_OK);
+        FileProtocol.writeData(out, dst.array(), 0, Math.max(n, 0));
+    }
+
+    // Saída para o cliente: as falhas de escrita no socket saem como UncheckedIOException, para
+    // que handle() não as confunda com erros do sistema de arquivos e tente responder por cima
+    private static final class ClientOutput extends FilterOutputStream {
+        ClientOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static String absolute(String path) {
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    // Para de aceitar clientes e encerra as sessões abertas; o FileSystem continua montado
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        sessions.shutdown();
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+}
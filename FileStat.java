@@ -0,0 +1,18 @@
+// Informações de uma entrada de diretório devolvidas por FileSystem.list e FileSystem.stat
+public class FileStat {
+    public final String name;
+    public final boolean directory;
+    public final int size;
+    public final int firstBlock;
+
+    public FileStat(String name, boolean directory, int size, int firstBlock) {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+        this.firstBlock = firstBlock;
+    }
+
+    static FileStat of(DirEntryView entry) {
+        return new FileStat(entry.name(), entry.attributes() == 0x02, entry.size(), entry.firstBlock());
+    }
+}
@@ -0,0 +1,1070 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// API do sistema de arquivos sobre uma imagem: devolve valores e lança exceções (de java.nio.file,
+// com o motivo em getReason) em vez de escrever no console. Caminhos absolutos começam em "/";
+// os relativos partem do diretório atual.
+//
+// Pode ser usada por várias threads. Travas, sempre adquiridas nesta ordem:
+//  - namespace: compartilhada por quase todas as operações; exclusiva para o que muda ou examina
+//    o volume inteiro (format, mount, check, close) e para remover diretórios, de modo que um
+//    diretório resolvido no caminho continua existindo até o fim da operação;
+//  - a do arquivo (FileManager.lockFile): leitores compartilham, escritores são exclusivos;
+//  - a do diretório (DirectoryManager.directoryLock): listar e buscar compartilham, criar e
+//    remover entradas (ou atualizar o tamanho de um arquivo) são exclusivos.
+// Abaixo delas, seguir cadeias na FAT não usa trava e o cache de blocos tem um monitor por faixa
+// (curtos, sem nenhuma trava tomada dentro): leitores não esperam uns pelos outros.
+// Fluxos abertos seguram a namespace e a trava do arquivo até serem fechados.
+//
+// As operações que alteram o volume são transações do journal (beginUpdate/endUpdate, em volta
+// de todas as travas acima): quando a chamada retorna, as suas alterações de metadados já estão
+// no disco. Um fluxo de escrita aberto é uma transação só, confirmada no close.
+public class FileSystem implements Closeable {
+    private final BlockDevice device;
+    private final Journal journal;
+    private final ReentrantReadWriteLock namespace = new ReentrantReadWriteLock();
+    // Geometria do volume montado; até o primeiro format/mount vale a geometria padrão
+    private Superblock superblock = new Superblock(FileSystemParam.DEFAULT_BLOCK_SIZE, FileSystemParam.DEFAULT_BLOCKS);
+    private BlockCache blockCache;
+    private FATManager fatManager;
+    private DirectoryManager dirManager;
+    private BlockManager blockManager;
+    private FileManager fileManager;
+    private volatile int currentDirectoryBlock; // Diretório atual
+    // Latências por operação; valem para o FileSystem inteiro, através de format e mount
+    private final OperationMetrics metrics = new OperationMetrics();
+    private ObjectName mbean; // FileSystemMetrics registrado no JMX (registerMBean), desfeito no close
+
+    public FileSystem(String image) {
+        device = new BlockDevice(image);
+        journal = new Journal(device);
+        blockCache = new BlockCache(device, superblock);
+        attach(superblock);
+    }
+
+    // Recria os gerenciadores para a geometria do superbloco montado
+    private void attach(Superblock mounted) {
+        superblock = mounted;
+        device.setBlockSize(superblock.getBlockSize());
+        blockCache = new BlockCache(device, superblock);
+        fatManager = new FATManager(device, superblock);
+        journal.attach(superblock, blockCache, fatManager);
+        dirManager = new DirectoryManager(blockCache, fatManager, journal);
+        blockManager = new BlockManager(blockCache);
+        fileManager = new FileManager(blockCache, fatManager, dirManager);
+        currentDirectoryBlock = superblock.getRootBlock();
+    }
+
+    private void lockNamespace(boolean exclusive) {
+        if (!exclusive) {
+            namespace.readLock().lock();
+            return;
+        }
+        if (namespace.getReadHoldCount() > 0) {
+            // Pedir a exclusiva segurando a compartilhada (um fluxo aberto) travaria a thread
+            throw new IllegalStateException("A stream of this file system is still open in this thread");
+        }
+        namespace.writeLock().lock();
+    }
+
+    private void unlockNamespace(boolean exclusive) {
+        if (exclusive) {
+            namespace.writeLock().unlock();
+        } else {
+            namespace.readLock().unlock();
+        }
+    }
+
+    // Início de uma operação que altera o volume: entra na transação corrente do journal e pega a
+    // namespace. A transação é confirmada por endUpdate, depois de liberada a namespace.
+    private void beginUpdate(boolean exclusive) {
+        journal.begin();
+        try {
+            lockNamespace(exclusive);
+        } catch (RuntimeException e) {
+            journal.end();
+            throw e;
+        }
+    }
+
+    // Espera a transação da operação chegar ao disco (com as das outras threads que terminaram junto)
+    private void endUpdate() throws IOException {
+        journal.commit(journal.end());
+    }
+
+    // Para o que troca ou descarrega o volume inteiro: nenhuma operação em andamento
+    private void lockVolume() {
+        journal.lockExclusive();
+        try {
+            lockNamespace(true);
+        } catch (RuntimeException e) {
+            journal.unlockExclusive();
+            throw e;
+        }
+    }
+
+    private void unlockVolume() {
+        unlockNamespace(true);
+        journal.unlockExclusive();
+    }
+
+    // Descarrega o volume atual e aplica o modo de acesso pedido
+    private void openDevice(boolean mapped) throws IOException {
+        blockCache.sync();
+        device.setMapped(mapped);
+    }
+
+    private void setCacheCapacity(int previous, int cacheCapacity) throws IOException {
+        blockCache.setCapacity(cacheCapacity > 0 ? cacheCapacity : previous);
+    }
+
+    // Cria um volume vazio com a geometria dada; cacheCapacity <= 0 mantém a capacidade atual do cache
+    public void format(int blockSize, int blocks, boolean mapped, int cacheCapacity) throws IOException {
+        // Valida a geometria antes de tocar na imagem
+        Superblock newSuperblock = new Superblock(blockSize, blocks);
+        lockVolume();
+        try {
+            int previous = blockCache.getCapacity();
+
+            openDevice(mapped);
+            // Imagem esparsa: os blocos de dados não são zerados, o cache os trata como zeros até
+            // a primeira gravação (o tempo do format não depende do tamanho do volume)
+            device.erase(newSuperblock.getImageSize());
+            newSuperblock.write(device);
+            attach(newSuperblock);
+            setCacheCapacity(previous, cacheCapacity);
+            blockCache.setUnwritten(superblock.getRootBlock(), superblock.getBlocks());
+
+            // Inicializa a FAT (gravada inteira no lugar: o journal ainda está vazio)
+            fatManager.format();
+            fatManager.writeFAT();
+
+            // Inicializa o bloco do diretório raiz
+            blockManager.initializeBlock(superblock.getRootBlock());
+            journal.reset();
+            fatManager.saveOwners();
+        } finally {
+            unlockVolume();
+        }
+    }
+
+    // Monta o volume existente na imagem, com a geometria gravada no superbloco, reaplicando o
+    // que estiver no journal (a FAT no lugar pode estar atrasada em relação a ele). Retorna quantas
+    // transações foram reaplicadas.
+    public int mount(boolean mapped, int cacheCapacity) throws IOException {
+        lockVolume();
+        try {
+            int previous = blockCache.getCapacity();
+            openDevice(mapped);
+            attach(Superblock.read(device));
+            setCacheCapacity(previous, cacheCapacity);
+            int replayed = journal.recover();
+            fatManager.loadFAT();
+            // A tabela de donos gravada só vale se o volume foi fechado (ou sincronizado) depois
+            // da última alteração; senão é refeita percorrendo a árvore
+            if (replayed > 0 || !fatManager.loadOwners()) {
+                rebuildOwners();
+            }
+            return replayed;
+        } finally {
+            unlockVolume();
+        }
+    }
+
+    // O diretório atual é um só para o FileSystem; com várias threads, prefira caminhos absolutos
+    public void changeDirectory(String path) throws IOException {
+        lockNamespace(false);
+        try {
+            int directoryToSearch = currentDirectoryBlock; // Começa no diretório atual
+
+            // Se o caminho for absoluto, reinicie no root
+            if (path.startsWith("/")) {
+                directoryToSearch = superblock.getRootBlock();
+                path = path.substring(1); // Remove a barra inicial
+            }
+
+            // Divide o caminho em partes
+            for (String part : path.split("/")) {
+                if (part.isEmpty() || part.equals(".")) {
+                    continue;
+                }
+                DentryCache.Dentry entry = dirManager.lookup(directoryToSearch, part);
+                if (entry == null || entry.attributes != 0x02) {
+                    throw new NoSuchFileException(path, null, "Directory not found");
+                }
+                directoryToSearch = entry.firstBlock; // Avança para o próximo bloco
+            }
+
+            currentDirectoryBlock = directoryToSearch; // Atualiza o diretório atual
+        } finally {
+            unlockNamespace(false);
+        }
+    }
+
+    public void mkdir(String path) throws IOException {
+        beginUpdate(false);
+        try {
+            String fullPath = path;
+            int parentBlock = currentDirectoryBlock; // Por padrão, começa no diretório atual
+
+            // Se o caminho for absoluto, comece no root
+            if (path.startsWith("/")) {
+                parentBlock = superblock.getRootBlock();
+                path = path.substring(1); // Remove a barra inicial
+            }
+
+            // Divide o caminho em partes
+            String[] parts = path.split("/");
+            String dirName = parts[parts.length - 1]; // Nome do diretório a ser criado
+            if (dirName.isEmpty()) {
+                throw new FileSystemException(fullPath, null, "Invalid directory name");
+            }
+
+            // Navega até o diretório pai
+            for (int i = 0; i < parts.length - 1; i++) {
+                DentryCache.Dentry entry = dirManager.lookup(parentBlock, parts[i]);
+                if (entry == null || entry.attributes != 0x02) {
+                    throw new NoSuchFileException(fullPath, null, "Directory not found in path");
+                }
+                parentBlock = entry.firstBlock;
+            }
+
+            ReentrantReadWriteLock.WriteLock lock = dirManager.directoryLock(parentBlock).writeLock();
+            lock.lock();
+            try {
+                // Verifica se o diretório já existe no diretório pai
+                if (dirManager.lookup(parentBlock, dirName) != null) {
+                    throw new FileAlreadyExistsException(fullPath, null, "Directory already exists");
+                }
+
+                int firstBlock = fatManager.allocateBlock();
+                if (firstBlock == -1) {
+                    throw new NoSpaceException(fullPath);
+                }
+                fatManager.claim(firstBlock, firstBlock);
+
+                // Cria o novo diretório
+                DirEntry newDir = newEntry(dirName, (byte) 0x02, firstBlock); // Diretório
+
+                // Salva o diretório no diretório pai (que cresce um bloco se estiver cheio)
+                dirManager.initializeBlock(newDir.first_block); // Inicializa o bloco do novo diretório
+                dirManager.forgetDirectory(newDir.first_block);
+                if (!dirManager.addEntry(parentBlock, newDir)) {
+                    dirManager.releaseDirectory(firstBlock);
+                    fatManager.freeBlock(firstBlock);
+                    throw new NoSpaceException(fullPath);
+                }
+            } finally {
+                lock.unlock();
+            }
+            fatManager.saveFAT();
+        } finally {
+            unlockNamespace(false);
+            endUpdate();
+        }
+    }
+
+    public void create(String path) throws IOException {
+        long start = System.nanoTime();
+        try {
+            beginUpdate(false);
+            try {
+                int parentBlock = parentDirectory(path);
+                String fileName = fileName(path, "Invalid file name");
+                ReentrantReadWriteLock.WriteLock lock = dirManager.directoryLock(parentBlock).writeLock();
+                lock.lock();
+                try {
+                    // Verifica se o arquivo já existe
+                    if (dirManager.lookup(parentBlock, fileName) != null) {
+                        throw new FileAlreadyExistsException(path, null, "File already exists");
+                    }
+                    // Cria o novo arquivo
+                    int firstBlock = fatManager.allocateBlock();
+                    if (firstBlock == -1) {
+                        throw new NoSpaceException(path);
+                    }
+                    fatManager.claim(firstBlock, firstBlock);
+                    DirEntry newFile = newEntry(fileName, (byte) 0x01, firstBlock); // Arquivo regular
+                    // Salva a nova entrada de arquivo no diretório pai (que cresce um bloco se estiver cheio)
+                    if (!dirManager.addEntry(parentBlock, newFile)) {
+                        fatManager.freeBlock(firstBlock);
+                        throw new NoSpaceException(path);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                fatManager.saveFAT();
+            } finally {
+                unlockNamespace(false);
+                endUpdate();
+            }
+        } finally {
+            metrics.record(OperationMetrics.Operation.CREATE, start);
+        }
+    }
+
+    private DirEntry newEntry(String name, byte attributes, int firstBlock) {
+        byte[] nameBytes = name.getBytes();
+        DirEntry entry = new DirEntry();
+        System.arraycopy(nameBytes, 0, entry.filename, 0, Math.min(nameBytes.length, entry.filename.length));
+        entry.attributes = attributes;
+        entry.first_block = firstBlock;
+        entry.size = 0;
+        return entry;
+    }
+
+    // Arquivos são removidos com a namespace compartilhada; diretórios, com ela exclusiva
+    // (as duas etapas na mesma transação)
+    public void unlink(String path) throws IOException {
+        long start = System.nanoTime();
+        try {
+            journal.begin();
+            try {
+                lockNamespace(false);
+                try {
+                    if (unlinkFile(path)) {
+                        return;
+                    }
+                } finally {
+                    unlockNamespace(false);
+                }
+                lockNamespace(true);
+                try {
+                    unlinkEntry(path);
+                } finally {
+                    unlockNamespace(true);
+                }
+            } finally {
+                endUpdate();
+            }
+        } finally {
+            metrics.record(OperationMetrics.Operation.UNLINK, start);
+        }
+    }
+
+    // Remove o arquivo no caminho; retorna false se o caminho for um diretório
+    private boolean unlinkFile(String path) throws IOException {
+        int parentBlock = parentDirectory(path);
+        String name = fileName(path, "Invalid name");
+        while (true) {
+            DentryCache.Dentry dentry = dirManager.lookup(parentBlock, name);
+            if (dentry == null) {
+                throw new NoSuchFileException(path, null, "File or directory not found");
+            }
+            if (dentry.attributes == 0x02) {
+                return false;
+            }
+            long slot = FileHandle.slot(dentry.entryBlock, dentry.entryIndex);
+            fileManager.lockFile(slot, true);
+            try {
+                ReentrantReadWriteLock.WriteLock lock = dirManager.directoryLock(parentBlock).writeLock();
+                lock.lock();
+                try {
+                    // A entrada pode ter mudado entre a busca e as travas: nesse caso, busca de novo
+                    if (sameEntry(dirManager.lookup(parentBlock, name), dentry)) {
+                        removeEntry(path, parentBlock, dentry);
+                        return true;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                fileManager.unlockFile(slot, true);
+            }
+        }
+    }
+
+    // Com a namespace exclusiva: nenhuma outra operação está em andamento
+    private void unlinkEntry(String path) throws IOException {
+        int parentBlock = parentDirectory(path);
+        String name = fileName(path, "Invalid name");
+
+        DentryCache.Dentry dentry = dirManager.lookup(parentBlock, name);
+        if (dentry == null) {
+            throw new NoSuchFileException(path, null, "File or directory not found");
+        }
+        removeEntry(path, parentBlock, dentry);
+    }
+
+    private void removeEntry(String path, int parentBlock, DentryCache.Dentry dentry) throws IOException {
+        if (fileManager.isOpen(dentry)) {
+            throw new FileSystemException(path, null, "File is open");
+        }
+        DirEntry entry = dirManager.readDirEntry(dentry.entryBlock, dentry.entryIndex);
+        if (entry.attributes == 0x02 && !dirManager.isEmpty(entry.first_block)) { // Diretório
+            throw new DirectoryNotEmptyException(path);
+        }
+        // Free all blocks associated
+        if (entry.attributes == 0x02) {
+            dirManager.releaseDirectory(entry.first_block);
+        } else {
+            fileManager.forget(entry.first_block);
+        }
+        fatManager.freeChain(entry.first_block);
+        entry.attributes = 0x00; // Mark entry as empty
+        dirManager.writeDirEntry(parentBlock, dentry.entryBlock, dentry.entryIndex, entry);
+        fatManager.saveFAT();
+    }
+
+    private static boolean sameEntry(DentryCache.Dentry a, DentryCache.Dentry b) {
+        return a != null && a.entryBlock == b.entryBlock && a.entryIndex == b.entryIndex
+                && a.attributes == b.attributes;
+    }
+
+    // Entradas do diretório (o atual, se path for null ou vazio), em ordem de posição
+    public List<FileStat> list(String path) throws IOException {
+        lockNamespace(false);
+        try {
+            int directory = currentDirectoryBlock;
+            if (path != null && !path.isEmpty()) {
+                directory = directoryBlock(path);
+            }
+            List<FileStat> entries = new ArrayList<>();
+            ReentrantReadWriteLock.ReadLock lock = dirManager.directoryLock(directory).readLock();
+            lock.lock();
+            try {
+                for (int block = directory; block != -1; block = dirManager.nextBlock(block)) {
+                    for (int i = 0; i < superblock.getDirEntries(); i++) {
+                        DirEntryView entry = dirManager.entryAt(block, i);
+                        if (!entry.isFree()) {
+                            entries.add(FileStat.of(entry));
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            return entries;
+        } finally {
+            unlockNamespace(false);
+        }
+    }
+
+    public FileStat stat(String path) throws IOException {
+        lockNamespace(false);
+        try {
+            String name = lastName(path);
+            if (name == null) {
+                return new FileStat("/", true, 0, directoryBlock(path));
+            }
+            int parentBlock = parentDirectory(path);
+            ReentrantReadWriteLock.ReadLock lock = dirManager.directoryLock(parentBlock).readLock();
+            lock.lock();
+            try {
+                DentryCache.Dentry dentry = dirManager.lookup(parentBlock, name);
+                if (dentry == null) {
+                    throw new NoSuchFileException(path, null, "File or directory not found");
+                }
+                return FileStat.of(dirManager.entryAt(dentry.entryBlock, dentry.entryIndex));
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            unlockNamespace(false);
+        }
+    }
+
+    // O fluxo segura a trava de leitura do arquivo até ser fechado; a latência (READ) vai da
+    // abertura ao close
+    public InputStream newInputStream(String path) throws IOException {
+        long start = System.nanoTime();
+        lockNamespace(false);
+        try {
+            FileHandle file = lockFile(path, false);
+            return new LockedInputStream(fileManager.openReader(file), FileHandle.slot(file), start);
+        } catch (IOException | RuntimeException e) {
+            unlockNamespace(false);
+            metrics.record(OperationMetrics.Operation.READ, start);
+            throw e;
+        }
+    }
+
+    // expectedBytes (0 se desconhecido) permite reservar de uma vez, e verificar antes de gravar,
+    // todo o espaço necessário; o tamanho do arquivo é gravado no close, que também libera a
+    // trava de escrita do arquivo; a latência (WRITE ou APPEND) vai da abertura ao close
+    public OutputStream newOutputStream(String path, boolean append, long expectedBytes) throws IOException {
+        long start = System.nanoTime();
+        beginUpdate(false);
+        try {
+            return openOutput(lockFile(path, true), append, expectedBytes, start);
+        } catch (IOException | RuntimeException e) {
+            unlockNamespace(false);
+            endUpdate();
+            metrics.record(writeOperation(append), start);
+            throw e;
+        }
+    }
+
+    // Substitui o conteúdo do arquivo
+    public void write(String path, ByteBuffer data) throws IOException {
+        writeStream(path, false, data);
+    }
+
+    public void append(String path, ByteBuffer data) throws IOException {
+        writeStream(path, true, data);
+    }
+
+    private void writeStream(String path, boolean append, ByteBuffer data) throws IOException {
+        long start = System.nanoTime();
+        try {
+            beginUpdate(false);
+            try {
+                FileHandle file = lockFile(path, true);
+                try (ChainOutputStream out = fileManager.openWriter(file, append, data.remaining())) {
+                    out.write(data);
+                } finally {
+                    fileManager.unlockFile(FileHandle.slot(file), true);
+                }
+            } finally {
+                unlockNamespace(false);
+                endUpdate();
+            }
+        } finally {
+            metrics.record(writeOperation(append), start);
+        }
+    }
+
+    // Lê a partir de offset até encher dst ou chegar ao fim; retorna quantos bytes leu, ou -1 no fim
+    public int read(String path, long offset, ByteBuffer dst) throws IOException {
+        long start = System.nanoTime();
+        try {
+            lockNamespace(false);
+            try {
+                FileHandle file = lockFile(path, false);
+                try {
+                    return read(file, offset, dst);
+                } finally {
+                    fileManager.unlockFile(FileHandle.slot(file), false);
+                }
+            } finally {
+                unlockNamespace(false);
+            }
+        } finally {
+            metrics.record(OperationMetrics.Operation.READ, start);
+        }
+    }
+
+    // Grava o conteúdo de src a partir de offset, estendendo o arquivo se preciso
+    public void write(String path, long offset, ByteBuffer src) throws IOException {
+        long start = System.nanoTime();
+        try {
+            beginUpdate(false);
+            try {
+                FileHandle file = lockFile(path, true);
+                try {
+                    write(file, offset, src);
+                } finally {
+                    fileManager.unlockFile(FileHandle.slot(file), true);
+                }
+            } finally {
+                unlockNamespace(false);
+                endUpdate();
+            }
+        } finally {
+            metrics.record(OperationMetrics.Operation.WRITE, start);
+        }
+    }
+
+    // Abre o arquivo e devolve um handle para as operações abaixo, que não resolvem o caminho de novo
+    public int open(String path) throws IOException {
+        lockNamespace(false);
+        try {
+            FileHandle file = lockFile(path, false);
+            try {
+                return fileManager.open(file);
+            } finally {
+                fileManager.unlockFile(FileHandle.slot(file), false);
+            }
+        } finally {
+            unlockNamespace(false);
+        }
+    }
+
+    public void close(int handle) throws IOException {
+        lockNamespace(false);
+        try {
+            fileManager.close(handle);
+        } finally {
+            unlockNamespace(false);
+        }
+    }
+
+    public int read(int handle, long offset, ByteBuffer dst) throws IOException {
+        long start = System.nanoTime();
+        try {
+            lockNamespace(false);
+            try {
+                FileHandle file = lockHandle(handle, false);
+                try {
+                    return read(file, offset, dst);
+                } finally {
+                    fileManager.unlockFile(FileHandle.slot(file), false);
+                }
+            } finally {
+                unlockNamespace(false);
+            }
+        } finally {
+            metrics.record(OperationMetrics.Operation.READ, start);
+        }
+    }
+
+    public void write(int handle, long offset, ByteBuffer src) throws IOException {
+        long start = System.nanoTime();
+        try {
+            beginUpdate(false);
+            try {
+                FileHandle file = lockHandle(handle, true);
+                try {
+                    write(file, offset, src);
+                } finally {
+                    fileManager.unlockFile(FileHandle.slot(file), true);
+                }
+            } finally {
+                unlockNamespace(false);
+                endUpdate();
+            }
+        } finally {
+            metrics.record(OperationMetrics.Operation.WRITE, start);
+        }
+    }
+
+    public void append(int handle, ByteBuffer data) throws IOException {
+        long start = System.nanoTime();
+        try {
+            beginUpdate(false);
+            try {
+                FileHandle file = lockHandle(handle, true);
+                try (ChainOutputStream out = fileManager.openWriter(file, true, data.remaining())) {
+                    out.write(data);
+                } finally {
+                    fileManager.unlockFile(FileHandle.slot(file), true);
+                }
+            } finally {
+                unlockNamespace(false);
+                endUpdate();
+            }
+        } finally {
+            metrics.record(OperationMetrics.Operation.APPEND, start);
+        }
+    }
+
+    public OutputStream newOutputStream(int handle, boolean append, long expectedBytes) throws IOException {
+        long start = System.nanoTime();
+        beginUpdate(false);
+        try {
+            return openOutput(lockHandle(handle, true), append, expectedBytes, start);
+        } catch (IOException | RuntimeException e) {
+            unlockNamespace(false);
+            endUpdate();
+            metrics.record(writeOperation(append), start);
+            throw e;
+        }
+    }
+
+    private static OperationMetrics.Operation writeOperation(boolean append) {
+        return append ? OperationMetrics.Operation.APPEND : OperationMetrics.Operation.WRITE;
+    }
+
+    // Com a transação aberta e a namespace e a trava de escrita do arquivo já adquiridas; o fluxo
+    // as libera no close
+    private OutputStream openOutput(FileHandle file, boolean append, long expectedBytes, long start)
+            throws IOException {
+        try {
+            return new LockedOutputStream(fileManager.openWriter(file, append, expectedBytes), FileHandle.slot(file),
+                    writeOperation(append), start);
+        } catch (IOException | RuntimeException e) {
+            fileManager.unlockFile(FileHandle.slot(file), true);
+            throw e;
+        }
+    }
+
+    public Map<Integer, FileHandle> getHandles() {
+        return fileManager.getHandles();
+    }
+
+    private int read(FileHandle file, long offset, ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            int n = fileManager.pread(file, offset, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+            return n;
+        }
+        byte[] chunk = new byte[Math.min(dst.remaining(), 64 * 1024)];
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = fileManager.pread(file, offset + total, chunk, 0, Math.min(chunk.length, dst.remaining()));
+            if (n == -1) {
+                break;
+            }
+            dst.put(chunk, 0, n);
+            total += n;
+        }
+        return total == 0 && dst.hasRemaining() ? -1 : total;
+    }
+
+    private void write(FileHandle file, long offset, ByteBuffer src) throws IOException {
+        if (src.hasArray()) {
+            fileManager.pwrite(file, offset, src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        fileManager.pwrite(file, offset, data, 0, data.length);
+    }
+
+    // Lista as inconsistências encontradas (vazia se o volume estiver consistente)
+    public List<String> check() {
+        return checkVolume().problems;
+    }
+
+    private void rebuildOwners() throws IOException {
+        int[] owners = new int[superblock.getBlocks()];
+        new ConsistencyChecker(blockCache, fatManager.copyFAT(), owners).run(ForkJoinPool.commonPool());
+        fatManager.replaceOwners(owners);
+    }
+
+    // Verificação completa, com os subdiretórios em paralelo no pool comum (ConsistencyChecker)
+    public CheckReport checkVolume() {
+        lockNamespace(true);
+        try {
+            return new ConsistencyChecker(blockCache, fatManager.copyFAT()).run(ForkJoinPool.commonPool());
+        } finally {
+            unlockNamespace(true);
+        }
+    }
+
+    // Verificação rápida: só a FAT contra a tabela de donos, sem percorrer a árvore
+    public CheckReport checkFast() {
+        lockNamespace(true);
+        try {
+            return ConsistencyChecker.checkOwners(fatManager.copyFAT(), fatManager.copyOwners(),
+                    superblock.getRootBlock());
+        } finally {
+            unlockNamespace(true);
+        }
+    }
+
+    // Lote: as operações desta thread até endBatch ficam numa única transação do journal, sem
+    // commit a cada uma (sem journal, a FAT não é gravada a cada operação desta thread; as das
+    // outras, como as sessões do servidor, continuam gravando); endBatch grava tudo com um
+    // checkpoint. Um lote por vez; dentro dele a thread não pode formatar, montar nem sincronizar.
+    public void beginBatch() {
+        fatManager.beginDeferred();
+        journal.begin();
+    }
+
+    // Só o fim do lote mais externo faz o checkpoint
+    public void endBatch() throws IOException {
+        boolean outermost = fatManager.endDeferred();
+        journal.end();
+        if (outermost) {
+            sync();
+        }
+    }
+
+    // Checkpoint: grava os blocos em cache e a FAT no lugar, força tudo para o disco e esvazia o journal
+    // Sem operações em andamento, para a tabela de donos gravada corresponder ao volume no disco
+    public void sync() throws IOException {
+        journal.lockExclusive();
+        try {
+            journal.checkpointLocked();
+            fatManager.saveOwners();
+        } finally {
+            journal.unlockExclusive();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lockVolume();
+        try {
+            journal.checkpointLocked();
+            fatManager.saveOwners();
+            device.close();
+            unregisterMBean();
+        } finally {
+            unlockVolume();
+        }
+    }
+
+    private synchronized void unregisterMBean() {
+        if (mbean != null) {
+            try {
+                FileSystemMetrics.unregister(mbean);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            mbean = null;
+        }
+    }
+
+    public Superblock getSuperblock() {
+        return superblock;
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public FATManager getFatManager() {
+        return fatManager;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public DirectoryManager getDirectoryManager() {
+        return dirManager;
+    }
+
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Publica as métricas no JMX com o nome da imagem (uma vez; só um FileSystem por imagem)
+    public synchronized void registerMBean() throws JMException {
+        if (mbean == null) {
+            mbean = FileSystemMetrics.register(this, device.getFile());
+        }
+    }
+
+    public BlockDevice getDevice() {
+        return device;
+    }
+
+    public DentryCache getDentryCache() {
+        return dirManager.getDentryCache();
+    }
+
+    // Resolução de caminhos
+
+    private int navigateToPath(String path) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (path == null || path.isEmpty()) {
+                return currentDirectoryBlock;
+            }
+            int directoryToSearch = currentDirectoryBlock;
+            if (path.startsWith("/")) {
+                directoryToSearch = superblock.getRootBlock();
+                path = path.substring(1);
+            }
+            for (String part : path.split("/")) {
+                if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                    continue;
+                }
+                DentryCache.Dentry entry = dirManager.lookup(directoryToSearch, part);
+                if (entry == null || entry.attributes != 0x02) {
+                    return -1;
+                }
+                directoryToSearch = entry.firstBlock; // Diretório
+            }
+            return directoryToSearch;
+        } finally {
+            metrics.record(OperationMetrics.Operation.RESOLVE, start);
+        }
+    }
+
+    private int directoryBlock(String path) throws IOException {
+        int block = navigateToPath(path);
+        if (block == -1) {
+            // Distingue um arquivo no lugar do diretório de um caminho inexistente
+            String name = lastName(path);
+            int parentBlock = navigateToParentDirectory(path);
+            if (name != null && parentBlock != -1) {
+                DentryCache.Dentry dentry = dirManager.lookup(parentBlock, name);
+                if (dentry != null && dentry.attributes == 0x01) {
+                    throw new NotDirectoryException(path);
+                }
+            }
+            throw new NoSuchFileException(path, null, "Directory not found");
+        }
+        return block;
+    }
+
+    private int navigateToParentDirectory(String path) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (path == null || path.isEmpty()) {
+                return currentDirectoryBlock;
+            }
+            int directoryToSearch = currentDirectoryBlock;
+            if (path.startsWith("/")) {
+                directoryToSearch = superblock.getRootBlock();
+                path = path.substring(1);
+            }
+            String[] parts = path.split("/");
+            for (int i = 0; i < parts.length - 1; i++) {
+                String part = parts[i];
+                if (part.isEmpty() || part.equals(".")) {
+                    continue;
+                }
+                DentryCache.Dentry entry = dirManager.lookup(directoryToSearch, part);
+                if (entry == null || entry.attributes != 0x02) {
+                    return -1;
+                }
+                directoryToSearch = entry.firstBlock;
+            }
+            return directoryToSearch;
+        } finally {
+            metrics.record(OperationMetrics.Operation.RESOLVE, start);
+        }
+    }
+
+    private int parentDirectory(String path) throws IOException {
+        int block = navigateToParentDirectory(path);
+        if (block == -1) {
+            throw new NoSuchFileException(path, null, "Directory not found");
+        }
+        return block;
+    }
+
+    // Último componente do caminho, ou null se não houver ("/", "")
+    private String lastName(String path) {
+        String[] parts = path.split("/");
+        return parts.length == 0 || parts[parts.length - 1].isEmpty() ? null : parts[parts.length - 1];
+    }
+
+    private String fileName(String path, String reason) throws FileSystemException {
+        String name = lastName(path);
+        if (name == null) {
+            throw new FileSystemException(path, null, reason);
+        }
+        return name;
+    }
+
+    // Arquivo regular no caminho (o já aberto, se houver), com a sua trava já adquirida;
+    // o chamador a libera com fileManager.unlockFile(FileHandle.slot(file), write)
+    private FileHandle lockFile(String path, boolean write) throws IOException {
+        int parentBlock = parentDirectory(path);
+        String fileName = fileName(path, "Invalid file name");
+        while (true) {
+            DentryCache.Dentry dentry = dirManager.lookup(parentBlock, fileName);
+            if (dentry == null || dentry.attributes != 0x01) {
+                throw new NoSuchFileException(path, null, "File not found");
+            }
+            long slot = FileHandle.slot(dentry.entryBlock, dentry.entryIndex);
+            fileManager.lockFile(slot, write);
+            // O arquivo pode ter sido removido (ou trocado) entre a busca e a trava
+            if (sameEntry(dirManager.lookup(parentBlock, fileName), dentry)) {
+                return fileManager.file(parentBlock, dentry, path);
+            }
+            fileManager.unlockFile(slot, write);
+        }
+    }
+
+    private FileHandle lockHandle(int handle, boolean write) throws IOException {
+        FileHandle file = fileManager.get(handle);
+        fileManager.lockFile(FileHandle.slot(file), write);
+        return file;
+    }
+
+    // Fluxos que liberam a trava do arquivo e a namespace (e confirmam a transação, o de escrita)
+    // no close, uma única vez, e registram a latência da operação desde a abertura
+
+    private final class LockedInputStream extends InputStream {
+        private final ChainInputStream in;
+        private final long slot;
+        private final long start;
+        private boolean closed;
+
+        LockedInputStream(ChainInputStream in, long slot, long start) {
+            this.in = in;
+            this.slot = slot;
+            this.start = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.close();
+            } finally {
+                fileManager.unlockFile(slot, false);
+                unlockNamespace(false);
+                metrics.record(OperationMetrics.Operation.READ, start);
+            }
+        }
+    }
+
+    private final class LockedOutputStream extends OutputStream {
+        private final ChainOutputStream out;
+        private final long slot;
+        private final OperationMetrics.Operation operation;
+        private final long start;
+        private boolean closed;
+
+        LockedOutputStream(ChainOutputStream out, long slot, OperationMetrics.Operation operation, long start) {
+            this.out = out;
+            this.slot = slot;
+            this.operation = operation;
+            this.start = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                try {
+                    out.close();
+                } finally {
+                    fileManager.unlockFile(slot, true);
+                    unlockNamespace(false);
+                    endUpdate();
+                }
+            } finally {
+                metrics.record(operation, start);
+            }
+        }
+    }
+}
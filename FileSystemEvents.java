@@ -0,0 +1,111 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Eventos do Java Flight Recorder, para cruzar a latência do sistema de arquivos com GC, threads e
+// E/S do sistema operacional na mesma gravação. Todos vêm desligados (@Enabled(false)); o fs.jfc
+// na raiz do projeto os liga:
+//   java -XX:StartFlightRecording:filename=fs.jfr,settings=default,settings=fs.jfc App
+// (ou Recording.enable no código). Sem gravação, quem emite só cria o evento e testa shouldCommit,
+// e o JIT elimina os dois.
+public final class FileSystemEvents {
+    private FileSystemEvents() {
+    }
+
+    @Name("t2sisop.BlockRead")
+    @Label("Block Read")
+    @Category({ "T2 FileSystem", "Block I/O" })
+    @Description("Leitura do dispositivo (canal ou imagem mapeada)")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class BlockRead extends Event {
+        @Label("First Block")
+        public int block;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+    }
+
+    @Name("t2sisop.BlockWrite")
+    @Label("Block Write")
+    @Category({ "T2 FileSystem", "Block I/O" })
+    @Description("Escrita no dispositivo (canal ou imagem mapeada)")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class BlockWrite extends Event {
+        @Label("First Block")
+        public int block;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+    }
+
+    @Name("t2sisop.FatAllocation")
+    @Label("FAT Allocation")
+    @Category({ "T2 FileSystem", "FAT" })
+    @Description("Alocação de blocos na FAT; block é -1 se faltou espaço")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class FatAllocation extends Event {
+        @Label("First Block")
+        public int block;
+
+        @Label("Blocks")
+        public int count;
+    }
+
+    @Name("t2sisop.FatSave")
+    @Label("FAT Save")
+    @Category({ "T2 FileSystem", "FAT" })
+    @Description("Gravação no lugar de uma sequência contígua de setores alterados da FAT")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class FatSave extends Event {
+        @Label("First Entry")
+        public int firstEntry;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+    }
+
+    @Name("t2sisop.DirectoryLookup")
+    @Label("Directory Lookup")
+    @Category({ "T2 FileSystem", "Directories" })
+    @Description("Busca de um nome num diretório, pelo cache de dentries ou pelos blocos")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class DirectoryLookup extends Event {
+        @Label("Directory Block")
+        public int directory;
+
+        @Label("Name")
+        public String name;
+
+        @Label("Dentry Cache Hit")
+        public boolean cached;
+
+        @Label("Found")
+        public boolean found;
+    }
+
+    @Name("t2sisop.Command")
+    @Label("Shell Command")
+    @Category({ "T2 FileSystem", "Shell" })
+    @Description("Um comando do shell, do início ao fim")
+    @Enabled(false)
+    public static final class Command extends Event {
+        @Label("Command")
+        public String command;
+
+        @Label("Arguments")
+        public String arguments;
+    }
+}
@@ -0,0 +1,126 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// As métricas de um FileSystem via JMX (jconsole, VisualVM...), como o comando stats: latência
+// de cada operação (contagem, média, p50, p99 e máximo, em microssegundos), E/S do dispositivo,
+// gravações da FAT, caches e journal. Os atributos são lidos na hora, dos gerenciadores do volume
+// montado no momento; "reset" zera as latências.
+public class FileSystemMetrics implements DynamicMBean {
+    private final FileSystem fs;
+    private final Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+
+    public FileSystemMetrics(FileSystem fs) {
+        this.fs = fs;
+        for (OperationMetrics.Operation operation : OperationMetrics.Operation.values()) {
+            String name = operation.label().substring(0, 1).toUpperCase() + operation.label().substring(1);
+            LatencyHistogram latency = fs.getMetrics().latency(operation);
+            attributes.put(name + "Count", latency::getCount);
+            attributes.put(name + "MeanMicros", () -> latency.getMeanNanos() / 1000);
+            attributes.put(name + "P50Micros", () -> latency.percentileNanos(50) / 1000.0);
+            attributes.put(name + "P99Micros", () -> latency.percentileNanos(99) / 1000.0);
+            attributes.put(name + "MaxMicros", () -> latency.getMaxNanos() / 1000.0);
+        }
+        attributes.put("DeviceReads", () -> fs.getDevice().getReads());
+        attributes.put("DeviceReadBytes", () -> fs.getDevice().getReadBytes());
+        attributes.put("DeviceWrites", () -> fs.getDevice().getWrites());
+        attributes.put("DeviceWrittenBytes", () -> fs.getDevice().getWrittenBytes());
+        attributes.put("FatFlushes", () -> fs.getFatManager().getFlushes());
+        attributes.put("FatSectorsWritten", () -> fs.getFatManager().getSectorsWritten());
+        attributes.put("CacheHits", () -> fs.getBlockCache().getHits());
+        attributes.put("CacheMisses", () -> fs.getBlockCache().getMisses());
+        attributes.put("CacheHitRate", () -> hitRate(fs.getBlockCache().getHits(), fs.getBlockCache().getMisses()));
+        attributes.put("DentryHits", () -> fs.getDentryCache().getHits());
+        attributes.put("DentryMisses", () -> fs.getDentryCache().getMisses());
+        attributes.put("DentryHitRate",
+                () -> hitRate(fs.getDentryCache().getHits(), fs.getDentryCache().getMisses()));
+        attributes.put("JournalCommits", () -> fs.getJournal().getCommits());
+        attributes.put("JournalOperations", () -> fs.getJournal().getOperations());
+        attributes.put("UsedBlocks", () -> (long) fs.getFatManager().getUsedBlocks());
+        attributes.put("FreeBlocks", () -> (long) fs.getFatManager().getFreeBlocks());
+    }
+
+    // Fração de acertos (0 a 1), ou 0 se ainda não houve acesso
+    public static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    // Registra no MBeanServer da plataforma com o nome da imagem
+    public static ObjectName register(FileSystem fs, String image) throws JMException {
+        ObjectName name = new ObjectName("t2sisop:type=FileSystem,image=" + ObjectName.quote(image));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new FileSystemMetrics(fs), name);
+        return name;
+    }
+
+    public static void unregister(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> value = attributes.get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value.get();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Supplier<Object> value = attributes.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value.get()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList list) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+        if (action.equals("reset") && (params == null || params.length == 0)) {
+            fs.getMetrics().reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+        for (String name : attributes.keySet()) {
+            String type = name.endsWith("Micros") || name.endsWith("Rate") ? "java.lang.Double" : "java.lang.Long";
+            infos.add(new MBeanAttributeInfo(name, type, name, true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Zera as latências das operações",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "Métricas do sistema de arquivos",
+                infos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { reset }, null);
+    }
+}
@@ -1,9 +1,11 @@
 public class FileSystemParam {
-	public final static int BLOCK_SIZE = 1024;
-	public final static int BLOCKS = 2048;
-	public final static int FAT_SIZE = BLOCKS * 2;
-	public final static int FAT_BLOCKS = FAT_SIZE / BLOCK_SIZE;
-	public final static int ROOT_BLOCK = FAT_BLOCKS;
+	// Geometria padrão do init; a do volume montado vem do Superblock
+	public final static int DEFAULT_BLOCK_SIZE = 1024;
+	public final static int DEFAULT_BLOCKS = 2048;
+	public final static int FAT_ENTRY_SIZE = 4;
+	public final static int FAT_FREE = 0x00000000;
+	public final static int FAT_EOF = 0x7fffffff;
+	public final static int FAT_RESERVED = 0x7ffffffe;
 	public final static int DIR_ENTRY_SIZE = 32;
-	public final static int DIR_ENTRIES = BLOCK_SIZE / DIR_ENTRY_SIZE;
+	public final static int FILENAME_SIZE = DIR_ENTRY_SIZE - 1 - 4 - 4;
 }
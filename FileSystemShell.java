@@ -1,16 +1,38 @@
-import java.util.HashSet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.management.JMException;
+
+// Interpretador de comandos: traduz cada linha em chamadas à API FileSystem e exibe o resultado
 public class FileSystemShell {
-    private FATManager fatManager = new FATManager();
-    private DirectoryManager dirManager = new DirectoryManager();
-    private BlockManager blockManager = new BlockManager();
-    private int currentDirectoryBlock = FileSystemParam.ROOT_BLOCK; // Diretório atual
+    // Comandos que trocam ou descarregam o volume: no modo lote rodam fora do lote
+    private static final Set<String> VOLUME_COMMANDS = Set.of("init", "load", "sync");
+
+    private final FileSystem fs = new FileSystem("filesystem.dat");
+    private boolean batch; // Executando um script (run)
 
     public void runShell() {
+        try {
+            fs.registerMBean(); // Métricas no JMX enquanto o shell estiver aberto
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
         Scanner scanner = new Scanner(System.in);
         System.out.println("FileSystem Shell. Type 'help' for commands.");
         while (true) {
@@ -22,20 +44,38 @@ public class FileSystemShell {
             executeCommand(command);
         }
         scanner.close();
+        close();
+    }
+
+    public void close() {
+        try {
+            fs.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void executeCommand(String commandLine) {
+        String[] command = parseCommand(commandLine);
+        execute(command[0], command[1]);
+    }
+
+    // Nome do comando, em minúsculas, e os argumentos (null se não houver)
+    private static String[] parseCommand(String commandLine) {
         String[] parts = commandLine.split(" ", 2);
-        String cmd = parts[0].toLowerCase();
-        String args = parts.length > 1 ? parts[1] : null;
+        return new String[] { parts[0].toLowerCase(), parts.length > 1 ? parts[1] : null };
+    }
 
+    private void execute(String cmd, String args) {
+        FileSystemEvents.Command event = new FileSystemEvents.Command();
+        event.begin();
         try {
             switch (cmd) {
                 case "init":
-                    initializeFileSystem();
+                    initializeFileSystem(args);
                     break;
                 case "load":
-                    loadFileSystem();
+                    loadFileSystem(args);
                     break;
                 case "ls":
                     listDirectory(args);
@@ -53,7 +93,7 @@ public class FileSystemShell {
                     changeDirectory(args);
                     break;
                 case "tree":
-                    displayTree(currentDirectoryBlock, 0);
+                    displayTree("", 0);
                     break;
                 case "write":
                     writeToFile(args);
@@ -64,364 +104,286 @@ public class FileSystemShell {
                 case "read":
                     readFromFile(args);
                     break;
+                case "cat":
+                    catFile(args);
+                    break;
+                case "pread":
+                    readAtOffset(args);
+                    break;
+                case "pwrite":
+                    writeAtOffset(args);
+                    break;
+                case "open":
+                    openFile(args);
+                    break;
+                case "close":
+                    closeHandle(args);
+                    break;
+                case "fappend":
+                    appendToHandle(args);
+                    break;
+                case "fread":
+                    readFromHandle(args);
+                    break;
+                case "handles":
+                    listHandles();
+                    break;
                 case "check":
-                    checkConsistency();
+                    checkConsistency(args);
                     break;
                 case "stats":
                     showStats();
                     break;
+                case "sync":
+                    syncFileSystem();
+                    break;
+                case "run":
+                    runScript(args);
+                    break;
                 case "help":
                     showHelp();
                     break;
                 default:
                     System.out.println("Unknown command. Type 'help' for a list of commands.");
             }
+        } catch (FileSystemException e) {
+            System.out.println("Error: " + reason(e) + ".");
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
+        } finally {
+            if (event.shouldCommit()) {
+                event.command = cmd;
+                event.arguments = args;
+                event.commit();
+            }
         }
     }
 
-    private void initializeFileSystem() {
-        // Inicializa a FAT
-        int[] fat = fatManager.getFat();
-        for (int i = 0; i < FileSystemParam.FAT_BLOCKS; i++) {
-            fat[i] = 0x7ffe; // Reservado para a FAT
+    private void runScript(String args) throws IOException {
+        if (args == null || args.trim().isEmpty()) {
+            System.out.println("Usage: run script.txt [--flush-every n]");
+            return;
         }
-        fat[FileSystemParam.ROOT_BLOCK] = 0x7fff; // Diretório raiz
-        for (int i = FileSystemParam.ROOT_BLOCK + 1; i < FileSystemParam.BLOCKS; i++) {
-            fat[i] = 0x0000; // Blocos livres
+        if (batch) {
+            System.out.println("Error: run cannot be used inside a script");
+            return;
         }
-        fatManager.saveFAT("filesystem.dat");
-
-        // Inicializa o bloco do diretório raiz
-        blockManager.initializeBlock(FileSystemParam.ROOT_BLOCK);
-
-        // Inicializa todos os blocos de dados
-        blockManager.initializeAllBlocks(); 
-
-        currentDirectoryBlock = FileSystemParam.ROOT_BLOCK;
-        System.out.println("FileSystem initialized.");
+        String value = optionValue(args, "--flush-every");
+        int flushEvery = value == null ? 0 : parseOption("--flush-every", value);
+        runBatch(Files.readAllLines(Path.of(args.trim().split("\\s+")[0])), flushEvery);
     }
 
-    private void listDirectory(String path) {
-        int directoryToList = currentDirectoryBlock;
-        if (path != null && !path.isEmpty()) {
-            directoryToList = navigateToPath(path);
-            if (directoryToList == -1) {
-                System.out.println("Error: Directory not found.");
-                return;
+    // Modo lote: as linhas são interpretadas de uma vez e os comandos executados num lote do
+    // FileSystem (metadados em memória, sem gravar a FAT e os diretórios a cada comando), com a
+    // saída suprimida; só as falhas aparecem, com o número da linha. Tudo é gravado no fim ou a
+    // cada flushEvery comandos (0: só no fim). Linhas vazias e começadas por # são ignoradas.
+    public void runBatch(List<String> lines, int flushEvery) {
+        List<String[]> commands = new ArrayList<>();
+        List<Integer> lineNumbers = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                commands.add(parseCommand(line));
+                lineNumbers.add(i + 1);
+            }
+        }
+
+        PrintStream console = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        int failures = 0;
+        int flushes = 0;
+        int pending = 0; // Comandos desde o último flush
+        boolean open = false;
+        long start = System.nanoTime();
+        batch = true;
+        System.setOut(new PrintStream(captured, true));
+        try {
+            for (int i = 0; i < commands.size(); i++) {
+                String[] command = commands.get(i);
+                boolean volume = VOLUME_COMMANDS.contains(command[0]);
+                if (volume && open) {
+                    open = false;
+                    fs.endBatch();
+                    flushes++;
+                    pending = 0;
+                } else if (!volume && !open) {
+                    fs.beginBatch();
+                    open = true;
+                }
+                captured.reset();
+                execute(command[0], command[1]);
+                String output = captured.toString();
+                if (isFailure(output)) {
+                    console.print("line " + lineNumbers.get(i) + ": " + output);
+                    failures++;
+                }
+                if (open && flushEvery > 0 && ++pending >= flushEvery) {
+                    open = false;
+                    fs.endBatch();
+                    flushes++;
+                    pending = 0;
+                }
             }
-        }
-        System.out.println("Listing directory:");
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(directoryToList, i);
-            if (entry != null && entry.attributes != 0) {
-                String type = (entry.attributes == 0x01) ? "File" : "Directory";
-                System.out.println(type + ": " + new String(entry.filename).trim());
+            if (open) {
+                open = false;
+                fs.endBatch();
+                flushes++;
+            }
+        } catch (IOException e) {
+            console.println("Error: " + e.getMessage());
+        } finally {
+            System.setOut(console);
+            batch = false;
+            if (open) {
+                try {
+                    fs.endBatch();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Batch: " + commands.size() + " commands, " + failures + " failed, " + flushes
+                + " flushes in " + String.format("%.3f", seconds) + " s ("
+                + String.format("%.0f", commands.size() / Math.max(seconds, 1e-9)) + " ops/s)");
     }
 
-    private int navigateToPath(String path) {
-        if (path == null || path.isEmpty()) {
-            return currentDirectoryBlock;
+    // Saída de um comando que não deu certo
+    private static boolean isFailure(String output) {
+        return output.startsWith("Usage:") || output.startsWith("Unknown command")
+                || output.contains("Error: ") || output.contains("Inconsistency: ");
+    }
+
+    // Motivo de uma exceção da API, na forma das mensagens do shell
+    private String reason(FileSystemException e) {
+        if (e.getReason() != null) {
+            return e.getReason();
         }
-        int directoryToSearch = currentDirectoryBlock;
-        if (path.startsWith("/")) {
-            directoryToSearch = FileSystemParam.ROOT_BLOCK;
-            path = path.substring(1);
+        if (e instanceof DirectoryNotEmptyException) {
+            return "Directory is not empty";
         }
-        String[] parts = path.split("/");
-        for (String part : parts) {
-            if (part.isEmpty() || part.equals(".")) {
-                continue;
-            }
-            if (part.equals("..")) {
-                // Implementar se necessário
-
-                continue;
-            }
-            boolean found = false;
-            for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-                DirEntry entry = dirManager.readDirEntry(directoryToSearch, i);
-                if (entry != null && entry.attributes != 0 && new String(entry.filename).trim().equals(part)) {
-                    if (entry.attributes == 0x02) { // Diretório
-                        directoryToSearch = entry.first_block;
-                        found = true;
-                        break;
-                    } else {
-                        return entry.first_block; // Arquivo encontrado
-                    }
-                }
-            }
-            if (!found) {
-                return -1;
-            }
+        if (e instanceof NotDirectoryException) {
+            return "Not a directory";
         }
-        return directoryToSearch;
+        return e.getMessage();
     }
 
-    private int navigateToParentDirectory(String path) {
-        if (path == null || path.isEmpty()) {
-            return currentDirectoryBlock;
+    private void initializeFileSystem(String args) throws IOException {
+        // Geometria escolhida no init
+        int blockSize = FileSystemParam.DEFAULT_BLOCK_SIZE;
+        int blocks = FileSystemParam.DEFAULT_BLOCKS;
+        String value = optionValue(args, "--block-size");
+        if (value != null) {
+            blockSize = parseOption("--block-size", value);
         }
-        int directoryToSearch = currentDirectoryBlock;
-        if (path.startsWith("/")) {
-            directoryToSearch = FileSystemParam.ROOT_BLOCK;
-            path = path.substring(1);
+        value = optionValue(args, "--blocks");
+        if (value != null) {
+            blocks = parseOption("--blocks", value);
         }
-        String[] parts = path.split("/");
-        for (int i = 0; i < parts.length - 1; i++) {
-            String part = parts[i];
-            if (part.isEmpty() || part.equals(".")) {
-                continue;
-            }
-            boolean found = false;
-            for (int j = 0; j < FileSystemParam.DIR_ENTRIES; j++) {
-                DirEntry entry = dirManager.readDirEntry(directoryToSearch, j);
-                if (entry != null && entry.attributes == 0x02 && new String(entry.filename).trim().equals(part)) {
-                    directoryToSearch = entry.first_block;
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                return -1;
-            }
+        fs.format(blockSize, blocks, hasOption(args, "--mmap"), cacheOption(args));
+        System.out.println("FileSystem initialized.");
+    }
+
+    private void listDirectory(String path) throws IOException {
+        List<FileStat> entries = fs.list(path);
+        System.out.println("Listing directory:");
+        for (FileStat entry : entries) {
+            System.out.println((entry.directory ? "Directory" : "File") + ": " + entry.name);
         }
-        return directoryToSearch;
     }
 
-    private void createDirectory(String path) {
+    private void createDirectory(String path) throws IOException {
         if (path == null || path.isEmpty()) {
             System.out.println("Usage: mkdir /path");
             return;
         }
-
-        int parentBlock = currentDirectoryBlock; // Por padrão, começa no diretório atual
-
-        // Se o caminho for absoluto, comece no root
-        if (path.startsWith("/")) {
-            parentBlock = FileSystemParam.ROOT_BLOCK;
-            path = path.substring(1); // Remove a barra inicial
-        }
-
-        // Divide o caminho em partes
-        String[] parts = path.split("/");
-        String dirName = parts[parts.length - 1]; // Nome do diretório a ser criado
-
-        // Navega até o diretório pai
-        for (int i = 0; i < parts.length - 1; i++) {
-            boolean found = false;
-            for (int j = 0; j < FileSystemParam.DIR_ENTRIES; j++) {
-                DirEntry entry = dirManager.readDirEntry(parentBlock, j);
-                if (entry.attributes == 0x02 && new String(entry.filename).trim().equals(parts[i])) {
-                    parentBlock = entry.first_block;
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                System.out.println("Error: Directory not found in path.");
-                return;
-            }
-        }
-
-        // Verifica se o diretório já existe no diretório pai
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(parentBlock, i);
-            if (entry.attributes != 0 && new String(entry.filename).trim().equals(dirName)) {
-                System.out.println("Error: Directory already exists.");
-                return;
-            }
-        }
-
-        // Cria o novo diretório
-        DirEntry newDir = new DirEntry();
-        byte[] nameBytes = dirName.getBytes();
-        for (int i = 0; i < nameBytes.length; i++) {
-            newDir.filename[i] = nameBytes[i];
-        }
-        newDir.attributes = 0x02; // Diretório
-        newDir.first_block = (short) fatManager.allocateBlock();
-        newDir.size = 0;
-
-        // Salva o diretório no diretório pai
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(parentBlock, i);
-            if (entry.attributes == 0x00) { // Entrada vazia
-                dirManager.writeDirEntry(parentBlock, i, newDir);
-                blockManager.initializeBlock(newDir.first_block); // Inicializa o bloco do novo diretório
-                System.out.println("Directory created: " + path);
-                return;
-            }
-        }
-
-        System.out.println("Error: No space available in the current directory.");
+        fs.mkdir(path);
+        System.out.println("Directory created: " + (path.startsWith("/") ? path.substring(1) : path));
     }
 
-    private void createFile(String path) {
+    private void createFile(String path) throws IOException {
         if (path == null || path.isEmpty()) {
             System.out.println("Usage: create /path/file");
             return;
         }
-        int parentBlock = navigateToParentDirectory(path);
-        if (parentBlock == -1) {
-            System.out.println("Error: Directory not found.");
-            return;
-        }
-        String fileName = extractFileName(path);
-        if (fileName == null || fileName.isEmpty()) {
-            System.out.println("Error: Invalid file name.");
-            return;
-        }
-        // Verifica se o arquivo já existe
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(parentBlock, i);
-            if (entry != null && entry.attributes != 0 && new String(entry.filename).trim().equals(fileName)) {
-                System.out.println("Error: File already exists.");
-                return;
-            }
-        }
-        // Cria o novo arquivo
-        DirEntry newFile = new DirEntry();
-        byte[] nameBytes = fileName.getBytes();
-        System.arraycopy(nameBytes, 0, newFile.filename, 0, Math.min(nameBytes.length, newFile.filename.length));
-        newFile.attributes = 0x01; // Arquivo regular
-        int firstBlock = fatManager.allocateBlock();
-        if (firstBlock == -1) {
-            System.out.println("Error: No space left on device.");
-            return;
-        }
-        newFile.first_block = (short) firstBlock;
-        newFile.size = 0;
-        // Salva a nova entrada de arquivo no diretório pai
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(parentBlock, i);
-            if (entry == null || entry.attributes == 0x00) {
-                dirManager.writeDirEntry(parentBlock, i, newFile);
-                fatManager.saveFAT("filesystem.dat");
-                System.out.println("File created: " + path);
-                return;
-            }
-        }
-        System.out.println("Error: No space available in the directory.");
+        fs.create(path);
+        System.out.println("File created: " + path);
     }
 
-    private void deleteFileOrDirectory(String path) {
+    private void deleteFileOrDirectory(String path) throws IOException {
         if (path == null || path.isEmpty()) {
             System.out.println("Usage: unlink /path/file_or_directory");
             return;
         }
+        fs.unlink(path);
+        System.out.println("Deleted: " + path);
+    }
 
-        int parentBlock = navigateToParentDirectory(path);
-        if (parentBlock == -1) {
-            System.out.println("Error: Directory not found.");
-            return;
-        }
+    // Capacidade do cache pedida com --cache, ou 0 para manter a atual
+    private int cacheOption(String args) {
+        String cacheBlocks = optionValue(args, "--cache");
+        return cacheBlocks == null ? 0 : parseOption("--cache", cacheBlocks);
+    }
 
-        String name = extractFileName(path);
-        if (name == null || name.isEmpty()) {
-            System.out.println("Error: Invalid name.");
-            return;
+    private int parseOption(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
         }
+    }
 
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(parentBlock, i);
-            if (entry != null && new String(entry.filename).trim().equals(name) && entry.attributes != 0x00) {
-                if (entry.attributes == 0x02) { // Diretório
-                    if (!isDirectoryEmpty(entry.first_block)) {
-                        System.out.println("Error: Directory is not empty.");
-                        return;
-                    }
-                }
-                // Free all blocks associated
-                fatManager.freeChain(entry.first_block);
-                entry.attributes = 0x00; // Mark entry as empty
-                dirManager.writeDirEntry(parentBlock, i, entry);
-                fatManager.saveFAT("filesystem.dat");
-                System.out.println("Deleted: " + path);
-                return;
+    private String optionValue(String args, String option) {
+        if (args == null) {
+            return null;
+        }
+        String[] parts = args.trim().split("\\s+");
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (parts[i].equals(option)) {
+                return parts[i + 1];
             }
         }
-        System.out.println("Error: File or directory not found.");
+        return null;
     }
 
-    private boolean isDirectoryEmpty(int block) {
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(block, i);
-            if (entry.attributes != 0) {
-                return false;
+    private boolean hasOption(String args, String option) {
+        if (args == null) {
+            return false;
+        }
+        for (String arg : args.trim().split("\\s+")) {
+            if (arg.equals(option)) {
+                return true;
             }
         }
-        return true;
+        return false;
     }
 
-    private void loadFileSystem() {
+    private void loadFileSystem(String args) {
         try {
-            fatManager.loadFAT("filesystem.dat");
-            currentDirectoryBlock = FileSystemParam.ROOT_BLOCK;
+            int replayed = fs.mount(hasOption(args, "--mmap"), cacheOption(args));
+            if (replayed > 0) {
+                System.out.println("Replayed " + replayed + " journal transactions.");
+            }
             System.out.println("FileSystem loaded from disk.");
         } catch (Exception e) {
             System.out.println("Error: Could not load the file system. " + e.getMessage());
         }
     }
 
-    private void changeDirectory(String path) {
+    private void changeDirectory(String path) throws IOException {
         if (path == null || path.isEmpty()) {
             System.out.println("Usage: cd /path");
             return;
         }
-
-        int directoryToSearch = currentDirectoryBlock; // Começa no diretório atual
-
-        // Se o caminho for absoluto, reinicie no root
-        if (path.startsWith("/")) {
-            directoryToSearch = FileSystemParam.ROOT_BLOCK;
-            path = path.substring(1); // Remove a barra inicial
-        }
-
-        if (path.isEmpty()) {
-            // O caminho é apenas "/", então definimos o diretório atual como raiz
-            currentDirectoryBlock = directoryToSearch;
+        fs.changeDirectory(path);
+        if (path.equals("/")) {
             System.out.println("Changed to root directory");
-            return;
-        }
-
-        // Divide o caminho em partes
-        String[] parts = path.split("/");
-        for (String part : parts) {
-            if (part.isEmpty() || part.equals(".")) {
-                continue;
-            }
-            boolean found = false;
-            for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-                DirEntry entry = dirManager.readDirEntry(directoryToSearch, i);
-                if (entry != null && entry.attributes == 0x02 && new String(entry.filename).trim().equals(part)) {
-                    directoryToSearch = entry.first_block; // Avança para o próximo bloco
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                System.out.println("Error: Directory not found.");
-                return;
-            }
-        }
-
-        currentDirectoryBlock = directoryToSearch; // Atualiza o diretório atual
-        System.out.println("Changed to directory: " + path);
-    }
-
-    private String extractFileName(String path) {
-        if (path == null || path.isEmpty()) {
-            return null;
+        } else {
+            System.out.println("Changed to directory: " + (path.startsWith("/") ? path.substring(1) : path));
         }
-        String[] parts = path.split("/");
-        return parts[parts.length - 1];
     }
 
-    private void writeToFile(String args) {
+    private void writeToFile(String args) throws IOException {
         if (args == null || args.isEmpty()) {
             System.out.println("Usage: write \"data\" [rep] /path/file");
             return;
@@ -450,95 +412,18 @@ public class FileSystemShell {
             }
         }
 
-        // Repeat data as per the repetition count
-        StringBuilder dataBuilder = new StringBuilder();
-        for (int i = 0; i < rep; i++) {
-            dataBuilder.append(data);
-        }
-        String dataToWrite = dataBuilder.toString();
-
-        // The rest of your method remains the same...
-        // Navigate to the parent directory of the file
-        int parentDirectoryBlock = navigateToParentDirectory(path);
-        if (parentDirectoryBlock == -1) {
-            System.out.println("Error: Directory not found.");
-            return;
-        }
-
-        String fileName = extractFileName(path);
-        if (fileName == null || fileName.isEmpty()) {
-            System.out.println("Error: Invalid file name.");
-            return;
-        }
-
-        // Find the file entry in the parent directory
-        DirEntry entry = null;
-        int entryIndex = -1;
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry dirEntry = dirManager.readDirEntry(parentDirectoryBlock, i);
-            if (dirEntry != null && new String(dirEntry.filename).trim().equals(fileName)
-                    && dirEntry.attributes == 0x01) {
-                entry = dirEntry;
-                entryIndex = i;
-                break;
+        // Grava em fluxo, um buffer de blocos por vez: a memória usada não depende do tamanho do arquivo
+        byte[] dataBytes = data.getBytes();
+        try (OutputStream out = fs.newOutputStream(path, false, (long) dataBytes.length * rep)) {
+            for (int i = 0; i < rep; i++) {
+                out.write(dataBytes);
             }
         }
 
-        if (entry == null) {
-            System.out.println("Error: File not found.");
-            return;
-        }
-
-        // Free the existing blocks of the file in the FAT
-        fatManager.freeChain(entry.first_block);
-
-        // Start writing the new content
-        byte[] dataBytes = dataToWrite.getBytes();
-        int remainingData = dataBytes.length;
-        int offset = 0;
-
-        // Alocar o primeiro bloco
-        int currentBlock = fatManager.allocateBlock();
-        if (currentBlock == -1) {
-            System.out.println("Error: No space left on device.");
-            return;
-        }
-        entry.first_block = currentBlock;
-
-        // Write data into blocks
-        while (remainingData > 0) {
-            byte[] blockData = new byte[FileSystemParam.BLOCK_SIZE];
-            int bytesToWrite = Math.min(FileSystemParam.BLOCK_SIZE, remainingData);
-            System.arraycopy(dataBytes, offset, blockData, 0, bytesToWrite);
-
-            blockManager.writeBlock("filesystem.dat", currentBlock, blockData);
-            remainingData -= bytesToWrite;
-            offset += bytesToWrite;
-
-            if (remainingData > 0) {
-                int nextBlock = fatManager.allocateBlock();
-                if (nextBlock == -1) {
-                    System.out.println("Error: No space left on device.");
-                    return;
-                }
-                fatManager.setFatValue(currentBlock, (short) nextBlock);
-                currentBlock = nextBlock;
-            } else {
-                fatManager.setFatValue(currentBlock, (short) 0x7fff);
-            }
-        }
-
-        // Update the file size and save the directory entry
-        entry.size = dataBytes.length;
-        dirManager.writeDirEntry(parentDirectoryBlock, entryIndex, entry);
-
-        // Save the FAT
-        fatManager.saveFAT("filesystem.dat");
-
         System.out.println("Data written to file: " + path);
     }
 
-    private void appendToFile(String args) {
+    private void appendToFile(String args) throws IOException {
         if (args == null || args.isEmpty()) {
             System.out.println("Usage: append \"data\" [rep] /path/file");
             return;
@@ -567,293 +452,306 @@ public class FileSystemShell {
             }
         }
 
-        // Repete os dados conforme o valor de repetições
-        StringBuilder dataBuilder = new StringBuilder();
-        for (int i = 0; i < rep; i++) {
-            dataBuilder.append(data);
+        // Acrescenta em fluxo a partir do último bloco; os blocos novos são reservados de uma vez
+        byte[] dataBytes = data.getBytes();
+        try (OutputStream out = fs.newOutputStream(path, true, (long) dataBytes.length * rep)) {
+            for (int i = 0; i < rep; i++) {
+                out.write(dataBytes);
+            }
         }
-        String dataToAppend = dataBuilder.toString();
 
-        // Navegar até o diretório pai do arquivo
-        int parentDirectoryBlock = navigateToParentDirectory(path);
-        if (parentDirectoryBlock == -1) {
-            System.out.println("Error: Directory not found.");
+        System.out.println("Data appended to file: " + path);
+    }
+
+    private void readFromFile(String path) throws IOException {
+        if (path == null || path.isEmpty()) {
+            System.out.println("Usage: read /path/file");
             return;
         }
+        try (InputStream in = fs.newInputStream(path)) {
+            System.out.print("Data in file: " + path + ": ");
+            copyToStdout(in);
+        }
+        System.out.println();
+    }
 
-        String fileName = extractFileName(path);
-        if (fileName == null || fileName.isEmpty()) {
-            System.out.println("Error: Invalid file name.");
+    // Como read, mas só os bytes do arquivo, sem prefixo nem quebra de linha
+    private void catFile(String path) throws IOException {
+        if (path == null || path.isEmpty()) {
+            System.out.println("Usage: cat /path/file");
             return;
         }
-
-        // Encontrar a entrada do arquivo no diretório pai
-        DirEntry entry = null;
-        int entryIndex = -1;
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry dirEntry = dirManager.readDirEntry(parentDirectoryBlock, i);
-            if (dirEntry != null && new String(dirEntry.filename).trim().equals(fileName)
-                    && dirEntry.attributes == 0x01) {
-                entry = dirEntry;
-                entryIndex = i;
-                break;
-            }
+        try (InputStream in = fs.newInputStream(path)) {
+            copyToStdout(in);
         }
+    }
 
-        if (entry == null) {
-            System.out.println("Error: File not found.");
+    private void readAtOffset(String args) throws IOException {
+        String[] parts = args == null ? new String[0] : args.trim().split("\\s+");
+        if (parts.length != 3) {
+            System.out.println("Usage: pread /path/file offset length");
             return;
         }
+        long offset;
+        int length;
+        try {
+            offset = Long.parseLong(parts[1]);
+            length = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid offset or length.");
+            return;
+        }
+        if (offset < 0 || length < 0) {
+            System.out.println("Error: Invalid offset or length.");
+            return;
+        }
+        String path = parts[0];
+        copyRangeToStdout("Data at offset " + offset + " in file: " + path + ": ", offset, length,
+                (position, chunk) -> fs.read(path, position, chunk));
+    }
 
-        byte[] dataBytes = dataToAppend.getBytes();
-        int remainingData = dataBytes.length;
-        int offset = 0;
-        int lastBlock = entry.first_block;
-        int fileSize = entry.size;
-
-
-        // Navega até o último bloco
-        Set<Integer> visitedBlocks = new HashSet<>();
-        while (fatManager.getFatValue(lastBlock) != 0x7fff) {
-            if (visitedBlocks.contains(lastBlock)) {
-                System.out.println("Error: Loop detected in FAT chain at block " + lastBlock);
-                return;
-            }
-            visitedBlocks.add(lastBlock);
+    // Leitura posicional de um arquivo (pelo caminho ou por um handle)
+    private interface RangeReader {
+        int read(long position, ByteBuffer chunk) throws IOException;
+    }
 
-            int nextBlock = fatManager.getFatValue(lastBlock);
-            if (nextBlock <= 0 || nextBlock >= FileSystemParam.BLOCKS) {
-                System.out.println("Error: Invalid FAT value at block " + lastBlock + ": " + nextBlock);
-                return;
+    private void copyRangeToStdout(String prefix, long offset, int length, RangeReader reader) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        // A primeira leitura valida o arquivo antes de exibir o prefixo
+        chunk.limit(Math.min(chunk.capacity(), length));
+        int n = reader.read(offset, chunk);
+        System.out.print(prefix);
+        while (n > 0) {
+            System.out.write(chunk.array(), 0, n);
+            offset += n;
+            length -= n;
+            if (length == 0) {
+                break;
             }
-
-            lastBlock = nextBlock;
+            chunk.clear().limit(Math.min(chunk.capacity(), length));
+            n = reader.read(offset, chunk);
         }
+        System.out.println();
+    }
 
-        // Calcula o espaço livre no último bloco
-        int freeSpaceInLastBlock = FileSystemParam.BLOCK_SIZE - (entry.size % FileSystemParam.BLOCK_SIZE);
-        int bytesToWrite = Math.min(freeSpaceInLastBlock, remainingData);
-
-        if (bytesToWrite > 0 && freeSpaceInLastBlock > 0) {
-            byte[] lastBlockData = blockManager.readBlock("filesystem.dat", lastBlock);
-            System.arraycopy(dataBytes, offset, lastBlockData, FileSystemParam.BLOCK_SIZE - freeSpaceInLastBlock,
-                    bytesToWrite);
-            blockManager.writeBlock("filesystem.dat", lastBlock, lastBlockData);
-            remainingData -= bytesToWrite;
-            offset += bytesToWrite;
-            fileSize += bytesToWrite;
+    private void writeAtOffset(String args) throws IOException {
+        Matcher matcher = args == null ? null
+                : Pattern.compile("^\"([^\"]*)\"\\s+(\\d+)\\s+(.+)$").matcher(args);
+        if (matcher == null || !matcher.matches()) {
+            System.out.println("Usage: pwrite \"data\" offset /path/file");
+            return;
         }
-
-        // Aloca novos blocos para os dados restantes
-        int currentBlock = lastBlock;
-        while (remainingData > 0) {
-            int nextBlock = fatManager.allocateBlock();
-            if (nextBlock == -1) {
-                System.out.println("Error: No space left on device.");
-                return;
-            }
-            fatManager.setFatValue(currentBlock, nextBlock);
-            currentBlock = nextBlock;
-
-            bytesToWrite = Math.min(FileSystemParam.BLOCK_SIZE, remainingData);
-            byte[] blockData = new byte[FileSystemParam.BLOCK_SIZE];
-            System.arraycopy(dataBytes, offset, blockData, 0, bytesToWrite);
-            blockManager.writeBlock("filesystem.dat", currentBlock, blockData);
-
-            remainingData -= bytesToWrite;
-            offset += bytesToWrite;
-            fileSize += bytesToWrite;
+        long offset;
+        try {
+            offset = Long.parseLong(matcher.group(2));
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid offset.");
+            return;
         }
-
-        // Marca o fim do arquivo na FAT
-        fatManager.setFatValue(currentBlock, 0x7fff);
-
-        // Atualiza o tamanho do arquivo e salva a entrada de diretório
-        entry.size = fileSize;
-        dirManager.writeDirEntry(parentDirectoryBlock, entryIndex, entry);
-
-        // Salva a FAT
-        fatManager.saveFAT("filesystem.dat");
-
-        System.out.println("Data appended to file: " + path);
+        String path = matcher.group(3);
+        fs.write(path, offset, ByteBuffer.wrap(matcher.group(1).getBytes()));
+        System.out.println("Data written to file at offset " + offset + ": " + path);
     }
 
-    private void readFromFile(String path) {
+    private void openFile(String path) throws IOException {
         if (path == null || path.isEmpty()) {
-            System.out.println("Usage: read /path/file");
+            System.out.println("Usage: open /path/file");
             return;
         }
+        System.out.println("Opened " + path + " as handle " + fs.open(path) + ".");
+    }
 
-        // Navigate to the parent directory of the file
-        int parentDirectoryBlock = navigateToParentDirectory(path);
-        if (parentDirectoryBlock == -1) {
-            System.out.println("Error: Directory not found.");
+    private void closeHandle(String args) throws IOException {
+        Integer handle = parseHandle(args == null ? null : args.trim());
+        if (handle == null) {
+            System.out.println("Usage: close handle");
             return;
         }
+        fs.close(handle);
+        System.out.println("Closed handle " + handle + ".");
+    }
 
-        String fileName = extractFileName(path);
-        if (fileName == null || fileName.isEmpty()) {
-            System.out.println("Error: Invalid file name.");
+    // Acrescenta pelo handle: sem resolver o caminho nem percorrer a cadeia do arquivo
+    private void appendToHandle(String args) throws IOException {
+        Matcher matcher = args == null ? null
+                : Pattern.compile("^(\\d+)\\s+\"([^\"]*)\"(?:\\s+(\\d+))?$").matcher(args.trim());
+        Integer handle = matcher != null && matcher.matches() ? parseHandle(matcher.group(1)) : null;
+        if (handle == null) {
+            System.out.println("Usage: fappend handle \"data\" [rep]");
             return;
         }
-
-        // Find the file entry in the parent directory
-        DirEntry entry = null;
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry dirEntry = dirManager.readDirEntry(parentDirectoryBlock, i);
-            if (dirEntry != null && new String(dirEntry.filename).trim().equals(fileName)
-                    && dirEntry.attributes == 0x01) {
-                entry = dirEntry;
-                break;
+        int rep = 1;
+        if (matcher.group(3) != null) {
+            try {
+                rep = Integer.parseInt(matcher.group(3));
+            } catch (NumberFormatException e) {
+                System.out.println("Error: Invalid repetition count.");
+                return;
             }
         }
+        byte[] dataBytes = matcher.group(2).getBytes();
+        try (OutputStream out = fs.newOutputStream(handle, true, (long) dataBytes.length * rep)) {
+            for (int i = 0; i < rep; i++) {
+                out.write(dataBytes);
+            }
+        }
+        System.out.println("Data appended to handle " + handle + ": " + fs.getHandles().get(handle).getPath());
+    }
 
-        if (entry == null) {
-            System.out.println("Error: File not found.");
+    private void readFromHandle(String args) throws IOException {
+        String[] parts = args == null ? new String[0] : args.trim().split("\\s+");
+        Integer handle = parts.length == 3 ? parseHandle(parts[0]) : null;
+        if (handle == null) {
+            System.out.println("Usage: fread handle offset length");
             return;
         }
-
-        // Read all blocks of the file by following the FAT chain
-        int currentBlock = entry.first_block;
-        StringBuilder fileData = new StringBuilder();
-        int bytesRead = 0;
-
-        while (currentBlock != 0x7fff && currentBlock != 0x0000 && bytesRead < entry.size) {
-            byte[] data = blockManager.readBlock("filesystem.dat", currentBlock);
-            int bytesToRead = Math.min(FileSystemParam.BLOCK_SIZE, entry.size - bytesRead);
-            fileData.append(new String(data, 0, bytesToRead));
-            bytesRead += bytesToRead;
-            currentBlock = fatManager.getFatValue(currentBlock);
+        long offset;
+        int length;
+        try {
+            offset = Long.parseLong(parts[1]);
+            length = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid offset or length.");
+            return;
         }
-
-        System.out.println("Data in file: " + path + ": " + fileData.toString());
-    }
-
-    private void displayTree(int block, int depth) {
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(block, i);
-            if (entry.attributes != 0) {
-                for (int j = 0; j < depth; j++) {
-                    System.out.print("  ");
-                }
-                System.out.println("- " + new String(entry.filename).trim() +
-                        (entry.attributes == 0x02 ? "/" : ""));
-                if (entry.attributes == 0x02) {
-                    displayTree(entry.first_block, depth + 1);
-                }
-            }
+        if (offset < 0 || length < 0) {
+            System.out.println("Error: Invalid offset or length.");
+            return;
         }
+        copyRangeToStdout("Data at offset " + offset + " in handle " + handle + ": ", offset, length,
+                (position, chunk) -> fs.read(handle, position, chunk));
     }
 
-    private void checkConsistency() {
-        boolean[] blocksUsed = new boolean[FileSystemParam.BLOCKS];
-
-        // Mark reserved blocks (FAT)
-        for (int i = 0; i < FileSystemParam.FAT_BLOCKS; i++) {
-            blocksUsed[i] = true;
+    private void listHandles() {
+        Map<Integer, FileHandle> handles = fs.getHandles();
+        if (handles.isEmpty()) {
+            System.out.println("No open handles.");
+            return;
         }
-
-        // Check the file system starting from the root directory
-        boolean hasInconsistencies = checkDirectoryConsistency(FileSystemParam.ROOT_BLOCK, blocksUsed);
-
-        // Check for allocated blocks that are not referenced
-        for (int i = 0; i < FileSystemParam.BLOCKS; i++) {
-            if (fatManager.getFatValue(i) != 0x0000 && !blocksUsed[i]) {
-                System.out.println("Inconsistency: Block " + i + " is allocated but not referenced.");
-                hasInconsistencies = true;
-            }
+        for (Map.Entry<Integer, FileHandle> e : handles.entrySet()) {
+            System.out.println("Handle " + e.getKey() + ": " + e.getValue().getPath() + " ("
+                    + e.getValue().getSize() + " bytes)");
         }
+    }
 
-        if (!hasInconsistencies) {
-            System.out.println("FileSystem is consistent.");
+    private Integer parseHandle(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
-    private boolean checkDirectoryConsistency(int dirBlock, boolean[] blocksUsed) {
-        boolean hasInconsistencies = false;
-        blocksUsed[dirBlock] = true;
-
-        for (int i = 0; i < FileSystemParam.DIR_ENTRIES; i++) {
-            DirEntry entry = dirManager.readDirEntry(dirBlock, i);
-            if (entry != null && entry.attributes != 0x00) {
-                int firstBlock = entry.first_block;
-                if (firstBlock <= 0 || firstBlock >= FileSystemParam.BLOCKS) {
-                    System.out.println(
-                            "Inconsistency: Entry " + new String(entry.filename).trim() + " has invalid first block.");
-                    hasInconsistencies = true;
-                    continue;
-                }
-
-                if (blocksUsed[firstBlock]) {
-                    System.out.println("Inconsistency: Block " + firstBlock + " is already used.");
-                    hasInconsistencies = true;
-                    continue;
-                }
-
-                // Mark blocks used by the file or directory
-                if (entry.attributes == 0x01) { // File
-                    hasInconsistencies |= checkFileConsistency(firstBlock, blocksUsed, entry.size, entry.filename);
-                } else if (entry.attributes == 0x02) { // Directory
-                    hasInconsistencies |= checkDirectoryConsistency(firstBlock, blocksUsed);
-                }
+    // Copia o arquivo para a saída em pedaços de tamanho fixo, seguindo a cadeia na FAT
+    private void copyToStdout(InputStream in) throws IOException {
+        byte[] chunk = new byte[8192];
+        try {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                System.out.write(chunk, 0, n);
             }
+        } finally {
+            System.out.flush();
         }
-        return hasInconsistencies;
     }
 
-    private boolean checkFileConsistency(int firstBlock, boolean[] blocksUsed, int fileSize, byte[] filename) {
-        boolean hasInconsistencies = false;
-        int currentBlock = firstBlock;
-        int totalSize = 0;
-
-        while (currentBlock != 0x7fff && currentBlock != 0x0000) {
-            if (blocksUsed[currentBlock]) {
-                System.out.println("Inconsistency: Block " + currentBlock + " is already used.");
-                hasInconsistencies = true;
-                break;
+    private void displayTree(String path, int depth) throws IOException {
+        for (FileStat entry : fs.list(path)) {
+            for (int j = 0; j < depth; j++) {
+                System.out.print("  ");
+            }
+            System.out.println("- " + entry.name + (entry.directory ? "/" : ""));
+            if (entry.directory) {
+                displayTree(path.isEmpty() ? entry.name : path + "/" + entry.name, depth + 1);
             }
-            blocksUsed[currentBlock] = true;
-            totalSize += FileSystemParam.BLOCK_SIZE;
-            currentBlock = fatManager.getFatValue(currentBlock);
         }
+    }
 
-        if (currentBlock == 0x0000) {
-            System.out.println("Inconsistency: File " + new String(filename).trim() + " chain terminated improperly.");
-            hasInconsistencies = true;
+    // --fast: só compara a FAT com a tabela de donos dos blocos, sem percorrer a árvore
+    private void checkConsistency(String args) {
+        boolean fast = args != null && args.trim().equals("--fast");
+        if (args != null && !args.trim().isEmpty() && !fast) {
+            System.out.println("Usage: check [--fast]");
+            return;
         }
-
-        // Check if the file size is consistent
-        if (totalSize < fileSize) {
-            System.out.println("Inconsistency: File " + new String(filename).trim() + " size mismatch.");
-            hasInconsistencies = true;
+        CheckReport report = fast ? fs.checkFast() : fs.checkVolume();
+        for (String problem : report.problems) {
+            System.out.println("Inconsistency: " + problem);
         }
-
-        return hasInconsistencies;
+        if (report.problems.isEmpty()) {
+            System.out.println("FileSystem is consistent.");
+        }
+        String checked = fast ? report.blocks + " blocks against the ownership table"
+                : report.directories + " directories, " + report.files + " files and " + report.blocks + " blocks";
+        System.out.println("Checked " + checked + " in " + String.format("%.1f", report.elapsedNanos / 1e6) + " ms ("
+                + String.format("%.0f", report.blocksPerSecond()) + " blocks/s)");
     }
 
     private void showStats() {
-        int freeBlocks = 0;
-        int usedBlocks = 0;
-
-        for (int i = 0; i < FileSystemParam.BLOCKS; i++) {
-            if (fatManager.getFatValue(i) == 0x0000) {
-                freeBlocks++;
-            } else {
-                usedBlocks++;
-            }
-        }
+        Superblock superblock = fs.getSuperblock();
+        FATManager fatManager = fs.getFatManager();
+        BlockCache blockCache = fs.getBlockCache();
+        int freeBlocks = fatManager.getFreeBlocks();
+        int usedBlocks = fatManager.getUsedBlocks();
 
         System.out.println("FileSystem Stats:");
-        System.out.println("Total Blocks: " + FileSystemParam.BLOCKS);
+        System.out.println("Total Blocks: " + superblock.getBlocks());
         System.out.println("Used Blocks: " + usedBlocks);
         System.out.println("Free Blocks: " + freeBlocks);
-        System.out.println("Block Size: " + FileSystemParam.BLOCK_SIZE + " bytes");
+        System.out.println("Block Size: " + superblock.getBlockSize() + " bytes");
+        System.out.println("FAT: " + superblock.getFatBlocks() + " blocks, "
+                + FileSystemParam.FAT_ENTRY_SIZE * 8 + "-bit entries");
+        System.out.println("FAT Sectors Written: " + fatManager.getSectorsWritten());
+
+        long lookups = blockCache.getHits() + blockCache.getMisses();
+        System.out.println("Cache: " + blockCache.getCachedBlocks() + "/" + blockCache.getCapacity() + " blocks, "
+                + blockCache.getDirtyBlocks() + " dirty");
+        System.out.println("Cache Hits: " + blockCache.getHits());
+        System.out.println("Cache Misses: " + blockCache.getMisses());
+        System.out.println("Cache Hit Rate: "
+                + (lookups == 0 ? "n/a" : String.format("%.1f%%", 100.0 * blockCache.getHits() / lookups)));
+        System.out.println("Cache Write-backs: " + blockCache.getWriteBacks());
+        System.out.println("Never-written Blocks: " + blockCache.getUnwrittenBlocks());
+        Journal journal = fs.getJournal();
+        if (journal.isEnabled()) {
+            System.out.println("Journal: " + journal.getUsedBytes() + "/" + journal.getCapacity() + " bytes, "
+                    + journal.getOperations() + " operations in " + journal.getCommits() + " commits, "
+                    + journal.getCheckpoints() + " checkpoints");
+        } else {
+            System.out.println("Journal: none");
+        }
+        DentryCache dentries = fs.getDentryCache();
+        System.out.println("Dentry Cache: " + dentries.size() + " entries, " + dentries.getHits() + " hits, "
+                + dentries.getMisses() + " misses");
+
+        BlockDevice device = fs.getDevice();
+        System.out.println("Device I/O: " + device.getReads() + " reads (" + device.getReadBytes() + " bytes), "
+                + device.getWrites() + " writes (" + device.getWrittenBytes() + " bytes)");
+        System.out.println("FAT Flushes: " + fatManager.getFlushes());
+        System.out.println("Latency (us)      count       mean        p50        p99        max");
+        OperationMetrics metrics = fs.getMetrics();
+        for (OperationMetrics.Operation operation : OperationMetrics.Operation.values()) {
+            LatencyHistogram latency = metrics.latency(operation);
+            System.out.println(String.format("  %-10s %10d %10.1f %10.1f %10.1f %10.1f", operation.label(),
+                    latency.getCount(), latency.getMeanNanos() / 1000, latency.percentileNanos(50) / 1000.0,
+                    latency.percentileNanos(99) / 1000.0, latency.getMaxNanos() / 1000.0));
+        }
+    }
+
+    private void syncFileSystem() throws IOException {
+        fs.sync();
+        System.out.println("FileSystem synced to disk.");
     }
 
     private void showHelp() {
         System.out.println("Available commands:");
-        System.out.println("  init                              - Initialize the file system");
-        System.out.println("  load                              - Load the file system from disk");
+        System.out.println("  init [--mmap] [--cache n]         - Initialize the file system");
+        System.out.println("       [--blocks n] [--block-size n]  (default " + FileSystemParam.DEFAULT_BLOCKS + " x "
+                + FileSystemParam.DEFAULT_BLOCK_SIZE + " bytes)");
+        System.out.println("  load [--mmap] [--cache n]         - Load the file system from disk");
         System.out.println("  ls [/path]                        - List directory contents");
         System.out.println("  mkdir /path                       - Create a new directory");
         System.out.println("  create /path/file                 - Create a new file");
@@ -862,9 +760,19 @@ public class FileSystemShell {
         System.out.println("  write \"data\" [rep] /path/file   - Write data to a file");
         System.out.println("  append \"data\" [rep] /path/file  - Append data to a file");
         System.out.println("  read /path/file                   - Read data from a file");
+        System.out.println("  cat /path/file                    - Write the raw file contents to stdout");
+        System.out.println("  pread /path/file offset length    - Read data at an offset of a file");
+        System.out.println("  pwrite \"data\" offset /path/file  - Write data at an offset of a file");
+        System.out.println("  open /path/file                   - Open a file and print its handle");
+        System.out.println("  close handle                      - Close a file handle");
+        System.out.println("  fappend handle \"data\" [rep]      - Append data through an open handle");
+        System.out.println("  fread handle offset length        - Read data through an open handle");
+        System.out.println("  handles                           - List open file handles");
         System.out.println("  tree                              - Display directory structure");
         System.out.println("  stats                             - Show file system statistics");
-        System.out.println("  check                             - Check file system consistency");
+        System.out.println("  check [--fast]                    - Check file system consistency");
+        System.out.println("  sync                              - Write cached blocks back to disk");
+        System.out.println("  run script.txt [--flush-every n]  - Run a command script in batch mode");
         System.out.println("  help                              - Show this help message");
         System.out.println("  exit                              - Exit the shell");
     }
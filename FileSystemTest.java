@@ -1,5 +1,35 @@
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class FileSystemTest {
 
@@ -23,6 +53,32 @@ public class FileSystemTest {
         testCheckConsistency();
         testShowStats();
         testHelpCommand();
+        testMappedMode();
+        testBlockCacheAndSync();
+        testCacheCapacity();
+        testFreeBitmap();
+        testIncrementalFatSave();
+        testExtentAllocation();
+        testAdjacentDirectoryEntries();
+        testLargeDirectory();
+        testDentryInvalidation();
+        testCustomGeometry();
+        testLargeWrite();
+        testRejectedWrite();
+        testCatCommand();
+        testPositionalReadWrite();
+        testOpenHandles();
+        testFileSystemApi();
+        testConcurrentAccess();
+        testFileServer();
+        testJournalRecovery();
+        testBatchScript();
+        testBatchOwner();
+        testParallelCheck();
+        testFastCheck();
+        testSparseFormat();
+        testOperationMetrics();
+        testFlightRecorderEvents();
         System.out.println("All tests completed.");
     }
 
@@ -274,4 +330,1178 @@ public class FileSystemTest {
             System.out.println("Help command failed.");
         }
     }
+
+    private void testMappedMode() {
+        System.out.println("Testing 'init --mmap' and 'load --mmap' commands...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init --mmap");
+        shell.executeCommand("mkdir /dir1");
+        shell.executeCommand("create /dir1/file1");
+        shell.executeCommand("write \"Mapped data\" 3 /dir1/file1");
+        String output = executeCommandAndGetOutput(shell, "read /dir1/file1");
+        if (output.contains("Mapped dataMapped dataMapped data")) {
+            System.out.println("Mapped mode reads back written data.");
+        } else {
+            System.out.println("Mapped mode read failed.");
+        }
+        shell.close();
+
+        FileSystemShell reader = new FileSystemShell();
+        reader.executeCommand("load");
+        output = executeCommandAndGetOutput(reader, "read /dir1/file1");
+        if (output.contains("Mapped dataMapped dataMapped data")) {
+            System.out.println("Data written in mapped mode is visible after load.");
+        } else {
+            System.out.println("Data written in mapped mode not found after load.");
+        }
+        reader.close();
+    }
+
+    private void testBlockCacheAndSync() {
+        System.out.println("Testing block cache and 'sync' command...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init --cache 8");
+        shell.executeCommand("mkdir /dir1");
+        shell.executeCommand("create /dir1/file1");
+        shell.executeCommand("write \"Cached data\" 200 /dir1/file1");
+        shell.executeCommand("ls /dir1");
+        String output = executeCommandAndGetOutput(shell, "stats");
+        if (output.contains("Cache Hits:") && !output.contains("Cache Hits: 0")) {
+            System.out.println("Directory lookups served from block cache.");
+        } else {
+            System.out.println("Block cache stats failed.");
+        }
+
+        output = executeCommandAndGetOutput(shell, "sync");
+        if (output.contains("FileSystem synced to disk.")) {
+            System.out.println("Sync command flushes the cache.");
+        } else {
+            System.out.println("Sync command failed.");
+        }
+
+        FileSystemShell reader = new FileSystemShell();
+        reader.executeCommand("load");
+        output = executeCommandAndGetOutput(reader, "read /dir1/file1");
+        if (output.contains("Cached dataCached data") && output.length() > 200 * "Cached data".length()) {
+            System.out.println("Synced data is visible after load.");
+        } else {
+            System.out.println("Synced data not found after load.");
+        }
+        reader.close();
+    }
+
+    private void testCacheCapacity() {
+        System.out.println("Testing the block cache capacity...");
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 4096, false, 256);
+            BlockCache cache = fs.getBlockCache();
+            int root = fs.getSuperblock().getRootBlock();
+            byte[] data = new byte[1024];
+            Arrays.fill(data, (byte) 7);
+            cache.writeBlock(root + 1, data); // Sujo, só no cache
+            boolean ok = true;
+            String counts = "";
+            // Mudar a capacidade (e o número de faixas) não perde blocos sujos nem passa do pedido
+            for (int capacity : new int[] { 256, 20, 5, 1, 16, 300 }) {
+                cache.setCapacity(capacity);
+                for (int block = root + 1; block < root + 2001; block++) {
+                    cache.readBlock(block, new byte[1024]);
+                }
+                counts += cache.getCachedBlocks() + "/" + capacity + ";";
+                ok &= cache.getCachedBlocks() == capacity;
+            }
+            byte[] back = new byte[1024];
+            cache.readBlock(root + 1, back);
+            ok &= Arrays.equals(back, data);
+            if (ok) {
+                System.out.println("Cache holds exactly the requested number of blocks.");
+            } else {
+                System.out.println("Cache capacity did not match: " + counts);
+            }
+        } catch (IOException e) {
+            System.out.println("Cache capacity test failed: " + e);
+        }
+    }
+
+    private void testFreeBitmap() {
+        System.out.println("Testing the free block bitmap and next-fit allocation...");
+        try {
+            boolean ok;
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 512, false, 0);
+                FATManager fat = fs.getFatManager();
+                int root = fs.getSuperblock().getRootBlock();
+                int free = fat.getFreeBlocks();
+                int a = fat.allocateBlock();
+                int b = fat.allocateBlock();
+                fat.freeBlock(a);
+                // Next-fit: o bloco liberado atrás do rotor não é reaproveitado de imediato
+                int c = fat.allocateBlock();
+                ok = a == root + 1 && b == a + 1 && c == b + 1 && fat.getFreeBlocks() == free - 2;
+                int last = c;
+                while (last != 511) {
+                    last = fat.allocateBlock();
+                }
+                // No fim do volume o rotor volta ao início e encontra o bloco liberado
+                ok &= fat.allocateBlock() == a && fat.getFreeBlocks() == 0 && fat.allocateBlock() == -1;
+                for (int block = root + 1; block < 512; block += 3) {
+                    fat.freeBlock(block);
+                }
+                // O rotor continua depois de a: o primeiro buraco à frente dele
+                ok &= fat.allocateBlock() == root + 4 && fat.getFreeBlocks() == freeInFat(fat, root);
+                fs.sync();
+            }
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.mount(false, 0);
+                FATManager fat = fs.getFatManager();
+                int root = fs.getSuperblock().getRootBlock();
+                // Bitmap refeito a partir da FAT gravada, com o rotor de volta ao início
+                ok &= fat.getFreeBlocks() == freeInFat(fat, root) && fat.getFreeBlocks() > 0
+                        && fat.allocateBlock() == root + 1;
+            }
+            if (ok) {
+                System.out.println("Free block count matches the FAT and the rotor wraps around.");
+            } else {
+                System.out.println("Free block bitmap did not match the FAT.");
+            }
+        } catch (IOException e) {
+            System.out.println("Free block bitmap test failed: " + e);
+        }
+    }
+
+    private void testIncrementalFatSave() {
+        System.out.println("Testing incremental FAT saves...");
+        try {
+            boolean ok;
+            int low;
+            int middle = 2048;
+            int high = 4095;
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 4096, false, 0);
+                FATManager fat = fs.getFatManager();
+                low = fs.getSuperblock().getRootBlock() + 1;
+                long sectors = fat.getSectorsWritten();
+                long flushes = fat.getFlushes();
+                // Uma entrada alterada: só o setor que a contém é gravado
+                fat.setFatValue(middle, FileSystemParam.FAT_EOF);
+                fat.writeFAT();
+                ok = !fat.isDirty() && fat.getSectorsWritten() == sectors + 1 && fat.getFlushes() == flushes + 1;
+                fat.writeFAT(); // Nada alterado: nada gravado
+                ok &= fat.getFlushes() == flushes + 1;
+
+                // Duas entradas distantes: dois setores gravados, os do meio ficam como estão no disco
+                Superblock superblock = fs.getSuperblock();
+                long middlePosition = superblock.position(superblock.getFatStart())
+                        + (long) middle * FileSystemParam.FAT_ENTRY_SIZE;
+                fs.getDevice().write(middlePosition, ByteBuffer.allocate(4).putInt(0, 0x5E5E5E5E));
+                sectors = fat.getSectorsWritten();
+                fat.setFatValue(low, FileSystemParam.FAT_EOF);
+                fat.setFatValue(high, FileSystemParam.FAT_EOF);
+                fat.writeFAT();
+                ByteBuffer onDisk = ByteBuffer.allocate(4);
+                fs.getDevice().read(middlePosition, onDisk);
+                ok &= fat.getSectorsWritten() == sectors + 2 && onDisk.getInt(0) == 0x5E5E5E5E;
+
+                // Entradas nas duas pontas da tabela
+                fat.setFatValue(low, high);
+                fat.setFatValue(high, FileSystemParam.FAT_EOF);
+                fat.setFatValue(middle, FileSystemParam.FAT_FREE);
+                fs.sync();
+                ok &= !fat.isDirty();
+            }
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.mount(false, 0);
+                FATManager fat = fs.getFatManager();
+                ok &= fat.getFatValue(low) == high && fat.getFatValue(high) == FileSystemParam.FAT_EOF
+                        && fat.getFatValue(middle) == FileSystemParam.FAT_FREE
+                        && fat.getFatValue(low + 1) == FileSystemParam.FAT_FREE
+                        && fat.getFatValue(high - 1) == FileSystemParam.FAT_FREE;
+            }
+            if (ok) {
+                System.out.println("Only dirty FAT sectors were written and persisted correctly.");
+            } else {
+                System.out.println("Incremental FAT save did not match.");
+            }
+        } catch (IOException e) {
+            System.out.println("Incremental FAT save test failed: " + e);
+        }
+    }
+
+    private void testExtentAllocation() {
+        System.out.println("Testing contiguous allocation of multi-block writes...");
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 256, false, 0);
+            FATManager fat = fs.getFatManager();
+            byte[] data = new byte[20 * 1024];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i % 251);
+            }
+            fs.create("/contiguous");
+            fs.write("/contiguous", ByteBuffer.wrap(data));
+            boolean ok = runs(fat, fs.stat("/contiguous").firstBlock) == 1;
+
+            // Volume fragmentado: arquivos de um bloco até encher, e um sim, outro não, removidos
+            int files = 0;
+            try {
+                while (true) {
+                    fs.create("/f" + files);
+                    files++;
+                }
+            } catch (NoSpaceException e) {
+                // Volume cheio
+            }
+            for (int i = 0; i < files; i += 2) {
+                fs.unlink("/f" + i);
+            }
+            fs.create("/fragmented");
+            byte[] spread = Arrays.copyOf(data, fat.getFreeBlocks() * 1024);
+            fs.write("/fragmented", ByteBuffer.wrap(spread));
+            int first = fs.stat("/fragmented").firstBlock;
+            ByteBuffer dst = ByteBuffer.allocate(spread.length);
+            int n = fs.read("/fragmented", 0, dst);
+            ok &= runs(fat, first) > 1 && fat.chainLength(first) * 1024 == spread.length
+                    && n == spread.length && Arrays.equals(dst.array(), spread) && fs.check().isEmpty();
+            if (ok) {
+                System.out.println("Writes got one extent on a fresh volume and several when fragmented.");
+            } else {
+                System.out.println("Extent allocation did not match.");
+            }
+        } catch (IOException e) {
+            System.out.println("Extent allocation test failed: " + e);
+        }
+    }
+
+    private void testAdjacentDirectoryEntries() {
+        System.out.println("Testing adjacent directory entries...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init");
+        shell.executeCommand("create /file1");
+        shell.executeCommand("create /file2");
+        shell.executeCommand("write \"Some data\" 10 /file1");
+        String output = executeCommandAndGetOutput(shell, "ls /");
+        if (output.contains("File: file1") && output.contains("File: file2")) {
+            System.out.println("Updating an entry leaves its neighbour intact.");
+        } else {
+            System.out.println("Updating an entry corrupted its neighbour.");
+        }
+    }
+
+    private void testLargeDirectory() {
+        System.out.println("Testing a directory spanning several blocks...");
+        try {
+            boolean ok;
+            TreeSet<String> expected = new TreeSet<>();
+            int perBlock;
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 512, false, 0);
+                perBlock = fs.getSuperblock().getDirEntries();
+                fs.mkdir("/d");
+                for (int i = 0; i < perBlock * 3 + 5; i++) {
+                    fs.create("/d/f" + i);
+                    expected.add("f" + i);
+                }
+                int dirBlock = fs.stat("/d").firstBlock;
+                FATManager fat = fs.getFatManager();
+                ok = fat.chainLength(dirBlock) == 4 && names(fs.list("/d")).equals(expected);
+
+                // Entradas removidas no meio da cadeia são reaproveitadas antes de crescer
+                String middle = "f" + (perBlock + perBlock / 2);
+                fs.unlink("/d/" + middle);
+                fs.unlink("/d/f" + (perBlock * 2 + 1));
+                expected.remove(middle);
+                expected.remove("f" + (perBlock * 2 + 1));
+                try {
+                    fs.stat("/d/" + middle);
+                    ok = false;
+                } catch (NoSuchFileException e) {
+                    // Esperado
+                }
+                fs.create("/d/again");
+                fs.write("/d/again", ByteBuffer.wrap("moved".getBytes()));
+                expected.add("again");
+                ok &= fat.chainLength(dirBlock) == 4 && names(fs.list("/d")).equals(expected);
+            }
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.mount(false, 0);
+                ok &= names(fs.list("/d")).equals(expected);
+                for (String name : expected) {
+                    ok &= fs.stat("/d/" + name).name.equals(name);
+                }
+                ByteBuffer dst = ByteBuffer.allocate(16);
+                int n = fs.read("/d/again", 0, dst);
+                ok &= n == 5 && new String(dst.array(), 0, n).equals("moved") && fs.check().isEmpty();
+            }
+            if (ok) {
+                System.out.println("Directory with " + expected.size() + " entries listed and resolved correctly.");
+            } else {
+                System.out.println("Directory spanning several blocks did not match.");
+            }
+        } catch (IOException e) {
+            System.out.println("Large directory test failed: " + e);
+        }
+    }
+
+    private void testDentryInvalidation() {
+        System.out.println("Testing dentry cache invalidation...");
+        try {
+            boolean ok;
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 256, false, 0);
+                int root = fs.getSuperblock().getRootBlock();
+                fs.mkdir("/p");
+                int parent = fs.stat("/p").firstBlock;
+                DentryCache dentries = fs.getDentryCache();
+                try {
+                    fs.stat("/p/x");
+                } catch (NoSuchFileException e) {
+                    // Fica uma entrada negativa
+                }
+                ok = dentries.get(parent, "x") == DentryCache.NEGATIVE;
+                fs.create("/p/x");
+                DentryCache.Dentry created = dentries.get(parent, "x");
+                ok &= created != null && created != DentryCache.NEGATIVE
+                        && created.firstBlock == fs.stat("/p/x").firstBlock;
+                fs.unlink("/p/x");
+                ok &= dentries.get(parent, "x") == DentryCache.NEGATIVE;
+
+                // rmdir descarta tudo o que foi resolvido dentro do diretório
+                fs.create("/p/y");
+                fs.stat("/p/y");
+                fs.unlink("/p/y");
+                fs.unlink("/p");
+                ok &= dentries.get(parent, "y") == null && dentries.get(parent, "x") == null
+                        && dentries.get(root, "p") == DentryCache.NEGATIVE;
+                fs.mkdir("/q");
+                fs.create("/q/x");
+                ok &= fs.stat("/q/x").firstBlock == dentries.get(fs.stat("/q").firstBlock, "x").firstBlock;
+
+                // Format e mount começam com o cache vazio
+                fs.format(1024, 256, false, 0);
+                ok &= fs.getDentryCache().size() == 0;
+                fs.mkdir("/r");
+                fs.stat("/r");
+                ok &= fs.getDentryCache().size() > 0;
+                fs.mount(false, 0);
+                ok &= fs.getDentryCache().size() == 0 && fs.stat("/r").directory;
+            }
+            if (ok) {
+                System.out.println("Dentry cache entries were invalidated as expected.");
+            } else {
+                System.out.println("Dentry cache kept a stale entry.");
+            }
+        } catch (IOException e) {
+            System.out.println("Dentry cache invalidation test failed: " + e);
+        }
+    }
+
+    private void testCustomGeometry() {
+        System.out.println("Testing 'init --blocks n --block-size n' command...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init --blocks 40000 --block-size 512");
+        shell.executeCommand("create /file1");
+        shell.executeCommand("write \"Geometry\" 100 /file1");
+        shell.close();
+
+        FileSystemShell reader = new FileSystemShell();
+        reader.executeCommand("load");
+        String output = executeCommandAndGetOutput(reader, "stats");
+        if (output.contains("Total Blocks: 40000") && output.contains("Block Size: 512 bytes")) {
+            System.out.println("Geometry is read back from the superblock.");
+        } else {
+            System.out.println("Geometry mismatch after load.");
+        }
+        output = executeCommandAndGetOutput(reader, "read /file1");
+        if (output.contains("Geometry".repeat(100))) {
+            System.out.println("Data spanning several small blocks read back correctly.");
+        } else {
+            System.out.println("Data read failed with custom geometry.");
+        }
+        reader.executeCommand("init");
+        reader.close();
+    }
+
+    private void testLargeWrite() {
+        System.out.println("Testing 'write' and 'append' of data larger than the cache...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init --cache 16");
+        shell.executeCommand("create /large");
+        shell.executeCommand("write \"0123456789\" 100000 /large");
+        shell.executeCommand("append \"abc\" 1000 /large");
+        String output = executeCommandAndGetOutput(shell, "read /large");
+        if (output.contains("Data in file: /large: " + "0123456789".repeat(100000) + "abc".repeat(1000))) {
+            System.out.println("Large write and append read back correctly.");
+        } else {
+            System.out.println("Large write or append does not match.");
+        }
+        output = executeCommandAndGetOutput(shell, "write \"0123456789\" 1000000 /large");
+        if (output.contains("No space left on device")) {
+            System.out.println("Write larger than the volume is rejected.");
+        } else {
+            System.out.println("Write larger than the volume was not rejected.");
+        }
+        output = executeCommandAndGetOutput(shell, "check");
+        if (output.contains("FileSystem is consistent.")) {
+            System.out.println("FileSystem is consistent after large writes.");
+        } else {
+            System.out.println("Consistency check after large writes failed.");
+        }
+        shell.close();
+    }
+
+    private void testRejectedWrite() {
+        System.out.println("Testing a rejected oversized write...");
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 256, false, 0);
+            fs.create("/kept");
+            fs.write("/kept", ByteBuffer.wrap("still here".getBytes()));
+            int rejected = 0;
+            for (long expected : new long[] { Integer.MAX_VALUE + 1L, Long.MAX_VALUE }) {
+                for (boolean append : new boolean[] { false, true }) {
+                    try (OutputStream out = fs.newOutputStream("/kept", append, expected)) {
+                        out.write(1);
+                    } catch (FileSystemException e) {
+                        rejected++;
+                    }
+                }
+            }
+            ByteBuffer dst = ByteBuffer.allocate(32);
+            int n = fs.read("/kept", 0, dst);
+            if (rejected == 4 && n == 10 && new String(dst.array(), 0, n).equals("still here")
+                    && fs.check().isEmpty()) {
+                System.out.println("Rejected write left the file intact.");
+            } else {
+                System.out.println("Rejected write damaged the file: " + fs.check());
+            }
+        } catch (IOException e) {
+            System.out.println("Rejected write test failed: " + e);
+        }
+    }
+
+    private void testCatCommand() {
+        System.out.println("Testing 'cat' command...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init");
+        shell.executeCommand("create /catfile");
+        shell.executeCommand("write \"Stream\" 500 /catfile");
+        String output = executeCommandAndGetOutput(shell, "cat /catfile");
+        if (output.equals("Stream".repeat(500))) {
+            System.out.println("Cat output matches file contents.");
+        } else {
+            System.out.println("Cat output does not match file contents.");
+        }
+        shell.close();
+    }
+
+    private void testPositionalReadWrite() {
+        System.out.println("Testing 'pread' and 'pwrite' commands...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init");
+        shell.executeCommand("create /posfile");
+        shell.executeCommand("write \"0123456789\" 300 /posfile");
+        shell.executeCommand("pwrite \"ABCD\" 1022 /posfile");
+        String output = executeCommandAndGetOutput(shell, "pread /posfile 1020 8");
+        if (output.contains("Data at offset 1020 in file: /posfile: 01ABCD67")) {
+            System.out.println("Positional write across a block boundary read back correctly.");
+        } else {
+            System.out.println("Positional read does not match positional write.");
+        }
+        shell.executeCommand("pwrite \"END\" 3000 /posfile");
+        shell.executeCommand("append \"+\" 2 /posfile");
+        output = executeCommandAndGetOutput(shell, "pread /posfile 2998 10");
+        if (output.contains("Data at offset 2998 in file: /posfile: 89END++")) {
+            System.out.println("Append after positional write continues at the new end.");
+        } else {
+            System.out.println("Append after positional write does not match.");
+        }
+        shell.close();
+    }
+
+    private void testOpenHandles() {
+        System.out.println("Testing 'open', 'fappend' and 'close' commands...");
+        FileSystemShell shell = new FileSystemShell();
+        shell.executeCommand("init");
+        shell.executeCommand("create /logfile");
+        String output = executeCommandAndGetOutput(shell, "open /logfile");
+        if (output.contains("Opened /logfile as handle 1.")) {
+            System.out.println("File opened successfully.");
+        } else {
+            System.out.println("File open failed.");
+        }
+        for (int i = 0; i < 100; i++) {
+            executeCommandAndGetOutput(shell, "fappend 1 \"entry" + i + ";\"");
+        }
+        shell.executeCommand("append \"tail\" 1 /logfile");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append("entry").append(i).append(';');
+        }
+        expected.append("tail");
+        output = executeCommandAndGetOutput(shell, "read /logfile");
+        if (output.contains("Data in file: /logfile: " + expected)) {
+            System.out.println("Appends through the handle read back correctly.");
+        } else {
+            System.out.println("Appends through the handle do not match.");
+        }
+        output = executeCommandAndGetOutput(shell, "unlink /logfile");
+        if (output.contains("Error: File is open.")) {
+            System.out.println("Open file is not deleted.");
+        } else {
+            System.out.println("Open file was deleted.");
+        }
+        shell.executeCommand("close 1");
+        output = executeCommandAndGetOutput(shell, "unlink /logfile");
+        if (output.contains("Deleted: /logfile")) {
+            System.out.println("Closed file deleted successfully.");
+        } else {
+            System.out.println("Closed file deletion failed.");
+        }
+        shell.close();
+    }
+
+    private void testFileSystemApi() {
+        System.out.println("Testing the FileSystem API...");
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 256, false, 0);
+            fs.mkdir("/docs");
+            fs.create("/docs/note");
+            fs.write("/docs/note", ByteBuffer.wrap("hello".getBytes()));
+            fs.append("/docs/note", ByteBuffer.wrap(" world".getBytes()));
+            ByteBuffer dst = ByteBuffer.allocate(32);
+            int n = fs.read("/docs/note", 6, dst);
+            List<FileStat> entries = fs.list("/docs");
+            if (n == 5 && new String(dst.array(), 0, n).equals("world") && entries.size() == 1
+                    && entries.get(0).name.equals("note") && fs.stat("/docs/note").size == 11) {
+                System.out.println("API calls return the written data.");
+            } else {
+                System.out.println("API calls returned unexpected data.");
+            }
+            String errors = "";
+            try {
+                fs.create("/docs/note");
+            } catch (FileAlreadyExistsException e) {
+                errors += "exists;";
+            }
+            try {
+                fs.read("/docs/missing", 0, ByteBuffer.allocate(1));
+            } catch (NoSuchFileException e) {
+                errors += "missing;";
+            }
+            try {
+                fs.unlink("/docs");
+            } catch (DirectoryNotEmptyException e) {
+                errors += "notempty;";
+            }
+            try {
+                fs.write("/docs/note", ByteBuffer.allocate(1024 * 1024));
+            } catch (NoSpaceException e) {
+                errors += "nospace;";
+            }
+            if (errors.equals("exists;missing;notempty;nospace;") && fs.check().isEmpty()) {
+                System.out.println("API reports each condition with its own type.");
+            } else {
+                System.out.println("API errors not reported as expected: " + errors);
+            }
+        } catch (IOException e) {
+            System.out.println("FileSystem API test failed: " + e);
+        }
+    }
+
+    private void testConcurrentAccess() {
+        System.out.println("Testing concurrent access...");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 1024, false, 0);
+            fs.create("/shared");
+            fs.write("/shared", ByteBuffer.wrap("shared data".getBytes()));
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                String dir = "/t" + t;
+                results.add(pool.submit(() -> {
+                    fs.mkdir(dir);
+                    boolean ok = true;
+                    for (int i = 0; i < 8; i++) {
+                        String file = dir + "/f" + i;
+                        fs.create(file);
+                        fs.write(file, ByteBuffer.wrap((file + ":").getBytes()));
+                        fs.append(file, ByteBuffer.wrap(new byte[1500]));
+                        ByteBuffer shared = ByteBuffer.allocate(32);
+                        int n = fs.read("/shared", 0, shared);
+                        ok &= n == 11 && new String(shared.array(), 0, n).equals("shared data");
+                    }
+                    // Remove metade dos arquivos enquanto as outras threads ainda criam os seus
+                    for (int i = 0; i < 8; i += 2) {
+                        fs.unlink(dir + "/f" + i);
+                    }
+                    for (int i = 1; i < 8; i += 2) {
+                        String file = dir + "/f" + i;
+                        ByteBuffer dst = ByteBuffer.allocate(file.length() + 1);
+                        fs.read(file, 0, dst);
+                        ok &= new String(dst.array()).equals(file + ":") && fs.stat(file).size == file.length() + 1 + 1500;
+                    }
+                    return ok && fs.list(dir).size() == 4;
+                }));
+            }
+            boolean ok = true;
+            for (Future<Boolean> result : results) {
+                ok &= result.get();
+            }
+            if (ok && fs.list("/").size() == 5 && fs.check().isEmpty()) {
+                System.out.println("Concurrent operations left the file system consistent.");
+            } else {
+                System.out.println("Concurrent operations failed: " + fs.check());
+            }
+        } catch (Exception e) {
+            System.out.println("Concurrent access test failed: " + e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testFileServer() {
+        System.out.println("Testing the file server...");
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 512, false, 0);
+            try (FileServer server = new FileServer(fs, new InetSocketAddress("localhost", 0))) {
+                server.start();
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int c = 0; c < 3; c++) {
+                    String dir = "/c" + c;
+                    results.add(pool.submit(() -> {
+                        try (FileClient client = new FileClient(server.getAddress())) {
+                            client.mkdir(dir);
+                            client.create(dir + "/log");
+                            client.write(dir + "/log", "first".getBytes());
+                            client.append(dir + "/log", " second".getBytes());
+                            client.write(dir + "/log", 0, "FIRST".getBytes());
+                            return new String(client.read(dir + "/log", 0, 64)).equals("FIRST second")
+                                    && client.read(dir + "/log", 12, 8).length == 0
+                                    && client.stat(dir + "/log").size == 12;
+                        }
+                    }));
+                }
+                boolean ok = true;
+                for (Future<Boolean> result : results) {
+                    ok &= result.get();
+                }
+                String errors = "";
+                try (FileClient client = new FileClient(server.getAddress())) {
+                    ok &= client.list("/").size() == 3 && client.check().isEmpty();
+                    try {
+                        client.create("/c0/log");
+                    } catch (FileAlreadyExistsException e) {
+                        errors += "exists;";
+                    }
+                    try {
+                        client.unlink("/c0");
+                    } catch (DirectoryNotEmptyException e) {
+                        errors += "notempty;";
+                    }
+                    try {
+                        client.read("/missing", 0, 1);
+                    } catch (NoSuchFileException e) {
+                        errors += "missing;";
+                    }
+                    // Cadeia corrompida (aponta para um bloco livre), lida do disco depois do mount
+                    client.create("/bad");
+                    client.write("/bad", new byte[3000]);
+                    FATManager fat = fs.getFatManager();
+                    int first = fs.stat("/bad").firstBlock;
+                    fat.setFatValue(first, fat.allocateBlock());
+                    fat.freeBlock(fat.getFatValue(first));
+                    fs.sync();
+                    fs.mount(false, 0);
+                    try {
+                        client.read("/bad", 0, 10);
+                    } catch (FileSystemException e) {
+                        if (e.getReason() != null && e.getReason().startsWith("Invalid FAT value")) {
+                            errors += "corrupt;";
+                        }
+                    }
+                    // A sessão continua utilizável depois dos erros
+                    client.unlink("/bad");
+                    client.sync();
+                    ok &= client.stat("/c0/log").size == 12;
+                }
+                if (ok && errors.equals("exists;notempty;missing;corrupt;")) {
+                    System.out.println("Server clients see the same volume.");
+                } else {
+                    System.out.println("Server results did not match: " + errors);
+                }
+            }
+            // O mesmo volume por um socket Unix-domain
+            try (FileServer server = new FileServer(fs, UnixDomainSocketAddress.of("filesystem.sock"))) {
+                server.start();
+                try (FileClient client = new FileClient(server.getAddress())) {
+                    if (new String(client.read("/c1/log", 0, 5)).equals("FIRST")) {
+                        System.out.println("Server answers over a Unix-domain socket.");
+                    } else {
+                        System.out.println("Unix-domain socket read did not match.");
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("File server test failed: " + e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void testJournalRecovery() {
+        System.out.println("Testing journal recovery after a crash...");
+        try {
+            // Volume abandonado sem close nem sync: a FAT e os diretórios atualizados só estão no journal
+            FileSystem crashed = new FileSystem("filesystem.dat");
+            crashed.format(1024, 1024, false, 0);
+            Superblock superblock = crashed.getSuperblock();
+            crashed.mkdir("/j");
+            for (int i = 0; i < 40; i++) {
+                crashed.create("/j/f" + i); // O diretório cresce um bloco
+            }
+            crashed.write("/j/f0", ByteBuffer.wrap("journaled data".getBytes()));
+            crashed.mkdir("/j/tmp");
+            crashed.unlink("/j/tmp");
+            crashed.unlink("/j/f1");
+            crashed.append("/j/f2", ByteBuffer.allocate(3000));
+            int journaled = crashed.getJournal().getUsedBytes();
+
+            // Uma transação interrompida no meio do commit, depois da última completa
+            try (RandomAccessFile image = new RandomAccessFile("filesystem.dat", "rw")) {
+                image.seek(superblock.position(superblock.getJournalStart() + 1) + journaled);
+                image.write(new byte[] { 0x54, 0x32, 0x54, 0x58, 0, 0, 0, 0, 0, 0, 0, 99, 0, 0, 0, 8, 1, 2, 3 });
+            }
+
+            boolean ok;
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                int replayed = fs.mount(false, 0);
+                ByteBuffer dst = ByteBuffer.allocate(32);
+                int n = fs.read("/j/f0", 0, dst);
+                ok = journaled > 0 && replayed > 0 && fs.list("/j").size() == 39
+                        && new String(dst.array(), 0, n).equals("journaled data")
+                        && fs.stat("/j/f2").size == 3000 && fs.check().isEmpty();
+            }
+            // Depois do close (checkpoint) o journal está vazio e tudo está no lugar
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                ok &= fs.mount(false, 0) == 0 && fs.list("/j").size() == 39 && fs.check().isEmpty();
+            }
+            if (ok) {
+                System.out.println("Journal replay restored the volume after a crash.");
+            } else {
+                System.out.println("Journal recovery did not restore the volume.");
+            }
+        } catch (IOException e) {
+            System.out.println("Journal recovery test failed: " + e);
+        }
+    }
+
+    private void testBatchScript() {
+        System.out.println("Testing 'run' batch scripts...");
+        Path script = Path.of("batch.txt");
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add("# provisionamento");
+            lines.add("init");
+            lines.add("mkdir /b");
+            for (int i = 0; i < 60; i++) {
+                lines.add("create /b/f" + i);
+                lines.add("write \"batch\" 3 /b/f" + i);
+            }
+            lines.add("");
+            lines.add("mkdir /b"); // Linha 125: já existe
+            lines.add("unlink /b/f0");
+            Files.write(script, lines);
+
+            FileSystemShell shell = new FileSystemShell();
+            String output = executeCommandAndGetOutput(shell, "run batch.txt --flush-every 50");
+            shell.close();
+
+            FileSystemShell reader = new FileSystemShell();
+            reader.executeCommand("load");
+            String listing = executeCommandAndGetOutput(reader, "ls /b");
+            String data = executeCommandAndGetOutput(reader, "read /b/f59");
+            String check = executeCommandAndGetOutput(reader, "check");
+            reader.close();
+
+            boolean reported = output.contains("line 125: Error: Directory already exists.")
+                    && output.contains("Batch: 124 commands, 1 failed, 3 flushes")
+                    && !output.contains("File created");
+            if (reported && listing.split("File: ").length == 60 && !listing.contains("File: f0\n")
+                    && data.contains("batchbatchbatch") && check.contains("FileSystem is consistent.")) {
+                System.out.println("Batch script ran quietly and its changes are on disk.");
+            } else {
+                System.out.println("Batch script result did not match: " + output);
+            }
+        } catch (IOException e) {
+            System.out.println("Batch script test failed: " + e);
+        } finally {
+            try {
+                Files.deleteIfExists(script);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void testBatchOwner() {
+        System.out.println("Testing batch ownership...");
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 512, false, 0);
+            FATManager fat = fs.getFatManager();
+            boolean[] other = new boolean[2];
+            Runnable probe = () -> {
+                other[0] = fat.isDeferred();
+                try {
+                    fs.beginBatch();
+                    other[1] = true;
+                } catch (IllegalStateException e) {
+                    other[1] = false;
+                }
+            };
+
+            fs.beginBatch();
+            fs.beginBatch();
+            fs.mkdir("/d");
+            fs.endBatch();
+            boolean ok = fat.isDeferred();
+            Thread t = new Thread(probe);
+            t.start();
+            t.join();
+            ok &= !other[0] && !other[1];
+            fs.endBatch();
+            ok &= !fat.isDeferred();
+
+            // Um lote que termina por exceção (endBatch no finally) não deixa a FAT adiada
+            try {
+                fs.beginBatch();
+                fs.mkdir("/d");
+            } catch (IOException expected) {
+                ok &= fat.isDeferred();
+            } finally {
+                fs.endBatch();
+            }
+            ok &= !fat.isDeferred();
+            Thread after = new Thread(() -> {
+                try {
+                    fs.beginBatch();
+                    other[0] = fat.isDeferred();
+                    fs.endBatch();
+                    other[1] = !fat.isDeferred();
+                } catch (IOException | IllegalStateException e) {
+                    other[1] = false;
+                }
+            });
+            after.start();
+            after.join();
+            ok &= other[0] && other[1];
+
+            boolean rejected = false;
+            try {
+                fs.endBatch();
+            } catch (IllegalStateException e) {
+                rejected = true;
+            }
+            ok &= rejected && fs.checkVolume().problems.isEmpty();
+            if (ok) {
+                System.out.println("Only the batch thread deferred FAT saves.");
+            } else {
+                System.out.println("Batch deferral leaked to other threads.");
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Batch ownership test failed: " + e);
+        }
+    }
+
+    private void testParallelCheck() {
+        System.out.println("Testing parallel consistency check...");
+        try (FileSystem fs = new FileSystem("filesystem.dat")) {
+            fs.format(1024, 2048, false, 0);
+            for (int d = 0; d < 4; d++) {
+                fs.mkdir("/p" + d);
+                for (int s = 0; s < 3; s++) {
+                    fs.mkdir("/p" + d + "/s" + s);
+                    for (int f = 0; f < 5; f++) {
+                        String file = "/p" + d + "/s" + s + "/f" + f;
+                        fs.create(file);
+                        fs.write(file, ByteBuffer.allocate(1500));
+                    }
+                }
+            }
+            CheckReport clean = fs.checkVolume();
+            boolean ok = clean.problems.isEmpty() && clean.directories == 17 && clean.files == 60
+                    && clean.blocks == fs.getSuperblock().getRootBlock() + 17 + 120;
+
+            // Dois arquivos dividindo um bloco, e um bloco alocado fora de qualquer cadeia
+            int shared = fs.stat("/p3/s2/f4").firstBlock;
+            int first = fs.stat("/p0/s0/f0").firstBlock;
+            FATManager fat = fs.getFatManager();
+            int orphan = fat.getFatValue(first);
+            fat.setFatValue(first, shared);
+            List<String> problems = fs.checkVolume().problems;
+            ok &= problems.contains("Block " + shared + " is already used.")
+                    && problems.contains("Block " + orphan + " is allocated but not referenced.");
+            if (ok) {
+                System.out.println("Parallel check reported shared and orphan blocks.");
+            } else {
+                System.out.println("Parallel check did not match: " + problems);
+            }
+        } catch (IOException e) {
+            System.out.println("Parallel check test failed: " + e);
+        }
+    }
+
+    private void testFastCheck() {
+        System.out.println("Testing 'check --fast' with the block ownership table...");
+        try {
+            boolean ok;
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 2048, false, 0);
+                fs.mkdir("/o");
+                for (int i = 0; i < 40; i++) {
+                    fs.create("/o/f" + i); // O diretório cresce um bloco
+                    fs.write("/o/f" + i, ByteBuffer.allocate(1500));
+                }
+                fs.append("/o/f3", ByteBuffer.allocate(5000));
+                fs.write("/o/f4", ByteBuffer.allocate(100)); // Cadeia nova, mais curta
+                int handle = fs.open("/o/f5");
+                fs.write(handle, 9000, ByteBuffer.allocate(10));
+                fs.close(handle);
+                fs.unlink("/o/f6");
+                ok = fs.checkFast().problems.isEmpty();
+            }
+            // Montado de novo: a tabela vem do arquivo gravado no close
+            FileSystem abandoned = new FileSystem("filesystem.dat");
+            abandoned.mount(false, 0);
+            ok &= abandoned.checkFast().problems.isEmpty();
+            abandoned.create("/o/late");
+            abandoned.append("/o/late", ByteBuffer.allocate(3000));
+            // Sem close: a tabela gravada ficou para trás e é refeita no próximo mount
+            FileSystem reopened = new FileSystem("filesystem.dat");
+            reopened.mount(false, 0);
+            ok &= reopened.checkFast().problems.isEmpty() && reopened.stat("/o/late").size == 3000;
+
+            int shared = reopened.stat("/o/f9").firstBlock;
+            int first = reopened.stat("/o/f0").firstBlock;
+            FATManager fat = reopened.getFatManager();
+            int orphan = fat.getFatValue(first);
+            fat.setFatValue(first, shared);
+            List<String> problems = reopened.checkFast().problems;
+            ok &= problems.contains("Block " + shared + " is already used.")
+                    && problems.contains("Block " + orphan + " is allocated but not referenced.");
+            if (ok) {
+                System.out.println("Fast check agreed with the ownership table.");
+            } else {
+                System.out.println("Fast check did not match: " + problems);
+            }
+        } catch (IOException e) {
+            System.out.println("Fast check test failed: " + e);
+        }
+    }
+
+    private void testSparseFormat() {
+        System.out.println("Testing sparse format with lazy zeroing...");
+        try {
+            int block;
+            boolean ok;
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 4096, false, 0);
+                fs.create("/old");
+                fs.write("/old", ByteBuffer.wrap("left over".getBytes()));
+                block = fs.stat("/old").firstBlock;
+            }
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                // Um format novo não zera os blocos, mas o que havia neles não aparece mais
+                fs.format(1024, 4096, false, 0);
+                BlockCache cache = fs.getBlockCache();
+                int unwritten = cache.getUnwrittenBlocks();
+                byte[] data = new byte[1024];
+                cache.readBlock(block, data);
+                ok = unwritten == 4096 - fs.getSuperblock().getRootBlock() && isZero(data);
+                fs.create("/new");
+                fs.write("/new", 3000, ByteBuffer.wrap("tail".getBytes()));
+                fs.sync();
+                ok &= cache.getUnwrittenBlocks() < unwritten;
+            }
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.mount(false, 0);
+                byte[] data = new byte[1024];
+                fs.getBlockCache().readBlock(block, data);
+                ByteBuffer dst = ByteBuffer.allocate(3004);
+                int n = fs.read("/new", 0, dst);
+                ok &= isZero(data) && n == 3004 && isZero(Arrays.copyOf(dst.array(), 3000))
+                        && new String(dst.array(), 3000, 4).equals("tail") && fs.check().isEmpty();
+            }
+            // Modo mapeado: as escritas vão direto à imagem, e cada bloco alocado deixa de ser
+            // "nunca gravado"
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 4096, true, 0);
+                BlockCache cache = fs.getBlockCache();
+                FATManager fat = fs.getFatManager();
+                int unwritten = cache.getUnwrittenBlocks();
+                int used = fat.getUsedBlocks();
+                fs.create("/mapped");
+                fs.write("/mapped", ByteBuffer.wrap("mapped".repeat(500).getBytes()));
+                fs.write("/mapped", 6000, ByteBuffer.wrap("end".getBytes()));
+                ok &= unwritten - cache.getUnwrittenBlocks() == fat.getUsedBlocks() - used;
+            }
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.mount(true, 0);
+                ByteBuffer dst = ByteBuffer.allocate(6003);
+                int n = fs.read("/mapped", 0, dst);
+                ok &= n == 6003 && new String(dst.array(), 0, 3000).equals("mapped".repeat(500))
+                        && new String(dst.array(), 6000, 3).equals("end") && fs.check().isEmpty();
+            }
+            if (ok) {
+                System.out.println("Sparse format read unwritten blocks as zeros.");
+            } else {
+                System.out.println("Sparse format did not match.");
+            }
+        } catch (IOException e) {
+            System.out.println("Sparse format test failed: " + e);
+        }
+    }
+
+    private void testOperationMetrics() {
+        System.out.println("Testing operation metrics in stats and JMX...");
+        try {
+            boolean ok;
+            ObjectName name = new ObjectName("t2sisop:type=FileSystem,image=" + ObjectName.quote("filesystem.dat"));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try (FileSystem fs = new FileSystem("filesystem.dat")) {
+                fs.format(1024, 1024, false, 0);
+                fs.registerMBean();
+                for (int i = 0; i < 10; i++) {
+                    fs.create("/m" + i);
+                    fs.write("/m" + i, ByteBuffer.allocate(2000));
+                    fs.append("/m" + i, ByteBuffer.allocate(100));
+                    fs.read("/m" + i, 0, ByteBuffer.allocate(100));
+                }
+                fs.unlink("/m0");
+                OperationMetrics metrics = fs.getMetrics();
+                LatencyHistogram create = metrics.latency(OperationMetrics.Operation.CREATE);
+                ok = create.getCount() == 10
+                        && metrics.latency(OperationMetrics.Operation.WRITE).getCount() == 10
+                        && metrics.latency(OperationMetrics.Operation.APPEND).getCount() == 10
+                        && metrics.latency(OperationMetrics.Operation.READ).getCount() == 10
+                        && metrics.latency(OperationMetrics.Operation.UNLINK).getCount() == 1
+                        && metrics.latency(OperationMetrics.Operation.RESOLVE).getCount() >= 41
+                        && create.percentileNanos(50) <= create.percentileNanos(99)
+                        && create.percentileNanos(99) <= create.getMaxNanos()
+                        && fs.getDevice().getWrites() > 0;
+                ok &= server.isRegistered(name) && (Long) server.getAttribute(name, "CreateCount") == 10
+                        && (Long) server.getAttribute(name, "UnlinkCount") == 1;
+                server.invoke(name, "reset", null, null);
+                ok &= create.getCount() == 0;
+            }
+            ok &= !server.isRegistered(name);
+
+            // O shell usa os fluxos (newOutputStream/newInputStream), medidos do open ao close
+            FileSystemShell shell = new FileSystemShell();
+            shell.executeCommand("init");
+            shell.executeCommand("create /s");
+            shell.executeCommand("write \"abc\" 2 /s");
+            shell.executeCommand("append \"d\" 1 /s");
+            shell.executeCommand("read /s");
+            shell.executeCommand("cat /s");
+            String opened = executeCommandAndGetOutput(shell, "open /s");
+            String handle = opened.substring(opened.indexOf("handle ") + 7, opened.lastIndexOf('.'));
+            shell.executeCommand("fappend " + handle + " \"e\" 1");
+            shell.executeCommand("close " + handle);
+            String output = executeCommandAndGetOutput(shell, "stats");
+            shell.close();
+            ok &= output.contains("Latency (us)") && output.contains(String.format("  %-10s %10d", "create", 1))
+                    && output.contains(String.format("  %-10s %10d", "write", 1))
+                    && output.contains(String.format("  %-10s %10d", "append", 2))
+                    && output.contains(String.format("  %-10s %10d", "read", 2))
+                    && output.contains("Device I/O: ") && output.contains("FAT Flushes: ");
+            if (ok) {
+                System.out.println("Operation metrics counted every call.");
+            } else {
+                System.out.println("Operation metrics did not match:\n" + output);
+            }
+        } catch (IOException | JMException e) {
+            System.out.println("Operation metrics test failed: " + e);
+        }
+    }
+
+    private void testFlightRecorderEvents() {
+        System.out.println("Testing JFR events...");
+        Path dump = Path.of("events.jfr");
+        try {
+            boolean ok = !EventType.getEventType(FileSystemEvents.BlockWrite.class).isEnabled();
+            List<String> seen = new ArrayList<>();
+            try (Recording recording = new Recording()) {
+                for (String name : new String[] { "t2sisop.BlockRead", "t2sisop.BlockWrite", "t2sisop.FatAllocation",
+                        "t2sisop.FatSave", "t2sisop.DirectoryLookup", "t2sisop.Command" }) {
+                    recording.enable(name).withThreshold(Duration.ZERO);
+                }
+                recording.start();
+                FileSystemShell shell = new FileSystemShell();
+                shell.executeCommand("init");
+                shell.executeCommand("mkdir /jfr");
+                shell.executeCommand("create /jfr/file");
+                shell.executeCommand("sync");
+                shell.close();
+                recording.stop();
+                recording.dump(dump);
+            }
+            boolean lookup = false;
+            boolean command = false;
+            for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+                String name = event.getEventType().getName();
+                seen.add(name);
+                lookup |= name.equals("t2sisop.DirectoryLookup") && "jfr".equals(event.getString("name"));
+                command |= name.equals("t2sisop.Command") && "/jfr/file".equals(event.getString("arguments"));
+            }
+            ok &= lookup && command && seen.contains("t2sisop.BlockWrite") && seen.contains("t2sisop.FatAllocation")
+                    && seen.contains("t2sisop.FatSave");
+            Files.deleteIfExists(dump);
+            if (ok) {
+                System.out.println("JFR events were recorded only when enabled.");
+            } else {
+                System.out.println("JFR events did not match: " + new TreeSet<>(seen));
+            }
+        } catch (IOException e) {
+            System.out.println("JFR events test failed: " + e);
+        }
+    }
+
+    // Quantas sequências de blocos contíguos formam a cadeia
+    private static int runs(FATManager fat, int first) {
+        int runs = 1;
+        for (int block = first; fat.getFatValue(block) != FileSystemParam.FAT_EOF; block = fat.getFatValue(block)) {
+            if (fat.getFatValue(block) != block + 1) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    // Blocos livres contados na FAT inteira, sem o bitmap
+    private static int freeInFat(FATManager fat, int root) {
+        int free = 0;
+        int[] table = fat.copyFAT();
+        for (int block = root + 1; block < table.length; block++) {
+            if (table[block] == FileSystemParam.FAT_FREE) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    private static TreeSet<String> names(List<FileStat> entries) {
+        TreeSet<String> names = new TreeSet<>();
+        for (FileStat entry : entries) {
+            names.add(entry.name);
+        }
+        return names;
+    }
+
+    private static boolean isZero(byte[] data) {
+        for (byte b : data) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,543 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+// Journal de metadados (write-ahead) na área entre a FAT e o diretório raiz. As alterações da FAT
+// e das entradas de diretório de uma operação entram na transação corrente; no fim da operação a
+// transação é gravada no journal (e forçada ao disco) antes que a FAT e os blocos de diretório
+// cheguem ao seu lugar na imagem, o que só acontece no checkpoint. No mount, as transações
+// completas encontradas no journal são reaplicadas.
+//
+// Modo ordenado: antes de gravar a transação, o commit grava os blocos sujos do cache que não
+// estão presos (os dados dos arquivos), e um único force cobre os dados e a transação; assim os
+// metadados no journal nunca apontam para dados que não chegaram ao disco. Os dados em si não
+// passam pelo journal: uma queda no meio de uma escrita pode deixar parte do conteúdo novo.
+//
+// Commit em grupo: as operações seguram a trava compartilhada enquanto alteram metadados; quem
+// termina uma operação e encontra um commit em andamento espera por ele, e o primeiro que não
+// encontra faz o commit de tudo o que as outras operações acumularam, com uma única escrita e um
+// único force. O commit pega a trava exclusiva, então um fluxo de escrita aberto (que segura a
+// compartilhada até o close) atrasa os commits das outras threads.
+//
+// No modo mapeado os blocos de diretório e de dados são escritos direto na imagem, sem esperar
+// o commit (e o force do commit cobre só a transação): o journal continua valendo para a FAT,
+// mas uma queda pode deixar entradas de diretório ou dados sem a transação correspondente.
+//
+// Layout: o primeiro bloco tem o cabeçalho (magic, sequência da primeira transação, CRC); os
+// demais são a área de registro, com as transações em sequência:
+//   int TX_MAGIC, long sequência, int tamanho, registros, int CRC32C (da sequência em diante)
+// Registros:
+//   FAT_RUN    int primeira entrada, int n, n x int valor
+//   DIR_ENTRY  int bloco, int índice, entrada de 32 bytes
+//   ZERO_BLOCK int bloco (bloco novo de diretório, zerado)
+//   REVOKE     int bloco (deixou de ser de diretório: os registros de transações anteriores sobre
+//              ele não são reaplicados, porque o bloco pode já ter dados de um arquivo)
+public class Journal {
+    private static final int MAGIC = 0x54324a4c; // "T2JL"
+    private static final int TX_MAGIC = 0x54325458; // "T2TX"
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+    private static final int TX_HEADER_SIZE = 4 + 8 + 4;
+    private static final byte FAT_RUN = 1;
+    private static final byte DIR_ENTRY = 2;
+    private static final byte ZERO_BLOCK = 3;
+    private static final byte REVOKE = 4;
+    private static final int ZERO_INDEX = -1;
+
+    private final BlockDevice device;
+    // Operações que alteram metadados seguram a compartilhada; commit, checkpoint, format e mount,
+    // a exclusiva
+    private final ReentrantReadWriteLock operations = new ReentrantReadWriteLock();
+
+    // Volume atual; só muda com a trava exclusiva
+    private Superblock superblock;
+    private BlockCache cache;
+    private FATManager fatManager;
+    private boolean enabled;     // o volume tem journal e ele foi formatado ou recuperado
+    private long start;          // posição do cabeçalho
+    private int capacity;        // bytes da área de registro
+    private int head;            // próximo byte livre da área de registro
+    private long sequence;       // sequência da próxima transação gravada
+
+    // Transação corrente: entradas de diretório por (bloco << 32 | índice), na ordem em que foram
+    // alteradas, e os blocos presos no cache até o commit
+    private final LinkedHashMap<Long, byte[]> entries = new LinkedHashMap<>();
+    private final Set<Integer> pinned = new HashSet<>();
+    private final Set<Integer> revoked = new LinkedHashSet<>();
+    private volatile long running = 1; // transação que recebe as operações
+    private long durable;              // última transação confirmada
+    private boolean committing;
+
+    private long operationCount;
+    private long commits;
+    private long checkpoints;
+    private int replayed;
+
+    public Journal(BlockDevice device) {
+        this.device = device;
+    }
+
+    // Passa a registrar o volume dado (com a trava exclusiva, ou antes de o volume ser usado);
+    // o journal só é gravado depois de reset ou recover
+    public void attach(Superblock superblock, BlockCache cache, FATManager fatManager) {
+        this.superblock = superblock;
+        this.cache = cache;
+        this.fatManager = fatManager;
+        this.enabled = false;
+        this.start = superblock.position(superblock.getJournalStart());
+        this.capacity = Math.max(0, superblock.getJournalBlocks() - 1) * superblock.getBlockSize();
+        this.head = 0;
+        this.sequence = 1;
+        synchronized (this) {
+            entries.clear();
+            pinned.clear();
+            revoked.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Início de uma operação que altera metadados; a thread pode aninhar operações
+    public void begin() {
+        operations.readLock().lock();
+    }
+
+    // Fim da operação; devolve a transação que a contém (para commit), ou 0 se ela estava aninhada
+    // em outra da mesma thread
+    public long end() {
+        long tx = running;
+        boolean outermost = operations.getReadHoldCount() == 1;
+        operations.readLock().unlock();
+        return outermost ? tx : 0;
+    }
+
+    // Espera a transação tx estar no journal, fazendo o commit se ninguém o estiver fazendo
+    public void commit(long tx) throws IOException {
+        if (tx == 0) {
+            return;
+        }
+        synchronized (this) {
+            operationCount++;
+            while (committing && durable < tx) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the journal commit");
+                }
+            }
+            if (durable >= tx || !hasChanges()) {
+                return;
+            }
+            committing = true;
+        }
+        try {
+            operations.writeLock().lock();
+            try {
+                commitLocked();
+            } finally {
+                operations.writeLock().unlock();
+            }
+        } finally {
+            synchronized (this) {
+                committing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized boolean hasChanges() {
+        return !entries.isEmpty() || !revoked.isEmpty() || fatManager.hasJournalChanges();
+    }
+
+    // Trava exclusiva para o que troca ou esvazia o volume (format, mount, checkpoint, close)
+    public void lockExclusive() {
+        if (operations.getReadHoldCount() > 0) {
+            // Pedir a exclusiva segurando a compartilhada (um fluxo aberto) travaria a thread
+            throw new IllegalStateException("A stream of this file system is still open in this thread");
+        }
+        operations.writeLock().lock();
+    }
+
+    public void unlockExclusive() {
+        operations.writeLock().unlock();
+    }
+
+    public void logEntry(int block, int index, byte[] record) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(key(block, index), record);
+            pin(block);
+        }
+    }
+
+    // Bloco de diretório zerado: as entradas registradas antes nele não valem mais
+    public void logZero(int block) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            entries.keySet().removeIf(key -> (int) (key >>> 32) == block);
+            entries.put(key(block, ZERO_INDEX), null);
+            pin(block);
+        }
+    }
+
+    // Bloco de diretório liberado (rmdir, ou mkdir desfeito)
+    public void revoke(int block) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            entries.keySet().removeIf(key -> (int) (key >>> 32) == block);
+            revoked.add(block);
+        }
+    }
+
+    private void pin(int block) {
+        if (pinned.add(block)) {
+            cache.pin(block);
+        }
+    }
+
+    private static long key(int block, int index) {
+        return ((long) block << 32) | (index & 0xffffffffL);
+    }
+
+    // Com a trava exclusiva: nenhuma operação está no meio, a transação corrente está completa
+    private void commitLocked() throws IOException {
+        long tx;
+        Map<Long, byte[]> records;
+        List<Integer> revokes;
+        List<Integer> blocks;
+        synchronized (this) {
+            tx = running;
+            records = new LinkedHashMap<>(entries);
+            revokes = new ArrayList<>(revoked);
+            blocks = new ArrayList<>(pinned);
+            entries.clear();
+            revoked.clear();
+            pinned.clear();
+            running = tx + 1;
+        }
+        try {
+            BitSet fatChanges = enabled ? fatManager.takeJournalChanges() : new BitSet();
+            if (!records.isEmpty() || !revokes.isEmpty() || !fatChanges.isEmpty()) {
+                ByteBuffer transaction = encode(records, revokes, fatChanges);
+                if (head + transaction.remaining() > capacity) {
+                    // Não cabe: leva tudo, inclusive esta transação, para o lugar definitivo
+                    writeHome();
+                } else {
+                    cache.syncUnpinned();
+                    append(transaction);
+                    if (head > capacity / 2) {
+                        writeHome();
+                    }
+                }
+            }
+        } finally {
+            for (int block : blocks) {
+                cache.unpin(block);
+            }
+        }
+        synchronized (this) {
+            durable = tx;
+            commits++;
+        }
+    }
+
+    private ByteBuffer encode(Map<Long, byte[]> records, List<Integer> revokes, BitSet fatChanges) {
+        int length = 0;
+        for (int i = fatChanges.nextSetBit(0); i >= 0; ) {
+            int end = fatChanges.nextClearBit(i);
+            length += 1 + 4 + 4 + (end - i) * 4;
+            i = fatChanges.nextSetBit(end);
+        }
+        length += revokes.size() * (1 + 4);
+        for (Map.Entry<Long, byte[]> record : records.entrySet()) {
+            length += record.getValue() == null ? 1 + 4 : 1 + 4 + 4 + FileSystemParam.DIR_ENTRY_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(TX_HEADER_SIZE + length + 4);
+        buffer.putInt(TX_MAGIC);
+        buffer.putLong(sequence);
+        buffer.putInt(length);
+        for (int i = fatChanges.nextSetBit(0); i >= 0; ) {
+            int end = fatChanges.nextClearBit(i);
+            buffer.put(FAT_RUN);
+            buffer.putInt(i);
+            buffer.putInt(end - i);
+            for (int entry = i; entry < end; entry++) {
+                buffer.putInt(fatManager.getFatValue(entry));
+            }
+            i = fatChanges.nextSetBit(end);
+        }
+        for (int block : revokes) {
+            buffer.put(REVOKE);
+            buffer.putInt(block);
+        }
+        for (Map.Entry<Long, byte[]> record : records.entrySet()) {
+            int block = (int) (record.getKey() >>> 32);
+            if (record.getValue() == null) {
+                buffer.put(ZERO_BLOCK);
+                buffer.putInt(block);
+            } else {
+                buffer.put(DIR_ENTRY);
+                buffer.putInt(block);
+                buffer.putInt((int) (long) record.getKey());
+                buffer.put(record.getValue());
+            }
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 4, 8 + 4 + length);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private void append(ByteBuffer transaction) throws IOException {
+        int length = transaction.remaining();
+        long position = logPosition(head);
+        device.write(position, transaction);
+        device.force(position, length);
+        head += length;
+        sequence++;
+    }
+
+    // Checkpoint: grava a FAT e os blocos em cache no lugar, força tudo e esvazia o journal
+    private void writeHome() throws IOException {
+        fatManager.writeFAT();
+        cache.sync();
+        device.force();
+        head = 0;
+        writeHeader();
+        synchronized (this) {
+            checkpoints++;
+        }
+    }
+
+    // Com a trava exclusiva: confirma a transação corrente e leva tudo para o lugar definitivo.
+    // Sem journal, só grava a FAT e o cache e força a imagem.
+    public void checkpointLocked() throws IOException {
+        if (!enabled) {
+            fatManager.writeFAT();
+            cache.sync();
+            device.force();
+            return;
+        }
+        commitLocked();
+        writeHome();
+    }
+
+    public void checkpoint() throws IOException {
+        lockExclusive();
+        try {
+            checkpointLocked();
+        } finally {
+            unlockExclusive();
+        }
+    }
+
+    // Volume recém-formatado: journal vazio. A área não é zerada no format; basta apagar o início
+    // da primeira transação para que o que sobrou de um volume anterior não seja reaplicado.
+    public void reset() throws IOException {
+        enabled = superblock.getJournalBlocks() > 0;
+        if (enabled) {
+            head = 0;
+            sequence = 1;
+            device.write(logPosition(0), ByteBuffer.allocate(TX_HEADER_SIZE));
+            writeHeader();
+        }
+    }
+
+    // Reaplica as transações completas do journal, na ordem, direto na imagem (antes de a FAT ser
+    // carregada) e esvazia o journal; devolve quantas foram reaplicadas
+    public int recover() throws IOException {
+        replayed = 0;
+        if (superblock.getJournalBlocks() == 0) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        device.read(start, header);
+        header.flip();
+        int magic = header.getInt();
+        long first = header.getLong();
+        if (magic != MAGIC || header.getInt() != headerChecksum(first)) {
+            throw new IOException("Corrupt journal header");
+        }
+        // Primeira passada: as transações completas e, para cada bloco revogado, a última
+        // transação que o revogou
+        sequence = first;
+        List<ByteBuffer> transactions = new ArrayList<>();
+        Map<Integer, Integer> revokedBy = new HashMap<>();
+        int offset = 0;
+        ByteBuffer txHeader = ByteBuffer.allocate(TX_HEADER_SIZE);
+        while (offset + TX_HEADER_SIZE + 4 <= capacity) {
+            txHeader.clear();
+            device.read(logPosition(offset), txHeader);
+            txHeader.flip();
+            if (txHeader.getInt() != TX_MAGIC || txHeader.getLong() != sequence) {
+                break; // Fim do journal (ou resto de um journal anterior ao último checkpoint)
+            }
+            int length = txHeader.getInt();
+            if (length < 0 || length > capacity - offset - TX_HEADER_SIZE - 4) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length + 4);
+            device.read(logPosition(offset + TX_HEADER_SIZE), body);
+            CRC32C crc = new CRC32C();
+            crc.update(txHeader.array(), 4, 8 + 4);
+            crc.update(body.array(), 0, length);
+            if ((int) crc.getValue() != body.getInt(length)) {
+                break; // Transação incompleta: a queda aconteceu durante o commit
+            }
+            body.flip();
+            body.limit(length);
+            scanRevokes(body.duplicate(), transactions.size(), revokedBy);
+            transactions.add(body);
+            offset += TX_HEADER_SIZE + length + 4;
+            sequence++;
+        }
+        for (int i = 0; i < transactions.size(); i++) {
+            apply(transactions.get(i), i, revokedBy);
+        }
+        replayed = transactions.size();
+        if (replayed > 0) {
+            device.force();
+        }
+        enabled = true;
+        head = 0;
+        writeHeader();
+        return replayed;
+    }
+
+    private void scanRevokes(ByteBuffer records, int transaction, Map<Integer, Integer> revokedBy)
+            throws IOException {
+        while (records.hasRemaining()) {
+            byte type = records.get();
+            int first = records.getInt();
+            switch (type) {
+                case FAT_RUN:
+                    records.position(records.position() + 4 + records.getInt(records.position())
+                            * FileSystemParam.FAT_ENTRY_SIZE);
+                    break;
+                case DIR_ENTRY:
+                    records.position(records.position() + 4 + FileSystemParam.DIR_ENTRY_SIZE);
+                    break;
+                case ZERO_BLOCK:
+                    break;
+                case REVOKE:
+                    revokedBy.put(first, transaction);
+                    break;
+                default:
+                    throw new IOException("Corrupt journal record type " + type);
+            }
+        }
+    }
+
+    private void apply(ByteBuffer records, int transaction, Map<Integer, Integer> revokedBy) throws IOException {
+        long fatPosition = superblock.position(superblock.getFatStart());
+        while (records.hasRemaining()) {
+            byte type = records.get();
+            int first = records.getInt();
+            if (type == FAT_RUN) {
+                int count = records.getInt();
+                if (first < 0 || count < 0 || count > superblock.getBlocks() - first) {
+                    throw new IOException("Corrupt journal record: FAT entries " + first + "+" + count);
+                }
+                ByteBuffer values = records.slice();
+                values.limit(count * FileSystemParam.FAT_ENTRY_SIZE);
+                device.write(fatPosition + (long) first * FileSystemParam.FAT_ENTRY_SIZE, values);
+                records.position(records.position() + count * FileSystemParam.FAT_ENTRY_SIZE);
+                continue;
+            }
+            if (first < superblock.getRootBlock() || first >= superblock.getBlocks()) {
+                throw new IOException("Corrupt journal record: block " + first);
+            }
+            // Registro sobre um bloco de diretório liberado depois, numa transação posterior
+            boolean skip = revokedBy.getOrDefault(first, -1) > transaction;
+            if (type == DIR_ENTRY) {
+                int index = records.getInt();
+                if (index < 0 || index >= superblock.getDirEntries()) {
+                    throw new IOException("Corrupt journal record: entry " + index);
+                }
+                ByteBuffer entry = records.slice();
+                entry.limit(FileSystemParam.DIR_ENTRY_SIZE);
+                if (!skip) {
+                    device.write(superblock.position(first) + (long) index * FileSystemParam.DIR_ENTRY_SIZE, entry);
+                }
+                records.position(records.position() + FileSystemParam.DIR_ENTRY_SIZE);
+            } else if (type == ZERO_BLOCK) {
+                if (!skip) {
+                    device.write(superblock.position(first), ByteBuffer.allocate(superblock.getBlockSize()));
+                }
+            } else if (type != REVOKE) {
+                throw new IOException("Corrupt journal record type " + type);
+            }
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putLong(sequence);
+        header.putInt(headerChecksum(sequence));
+        header.flip();
+        device.write(start, header);
+        device.force(start, HEADER_SIZE);
+    }
+
+    private static int headerChecksum(long sequence) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putInt(MAGIC);
+        buffer.putLong(sequence);
+        crc.update(buffer.array());
+        return (int) crc.getValue();
+    }
+
+    private long logPosition(int offset) {
+        return start + superblock.getBlockSize() + offset;
+    }
+
+    // Estatísticas
+
+    // Operações confirmadas e commits: a razão entre os dois é o tamanho médio dos grupos
+    public synchronized long getOperations() {
+        return operationCount;
+    }
+
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    public synchronized long getCheckpoints() {
+        return checkpoints;
+    }
+
+    // Transações reaplicadas no último mount
+    public synchronized int getReplayed() {
+        return replayed;
+    }
+
+    public int getUsedBytes() {
+        return head;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
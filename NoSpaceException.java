@@ -0,0 +1,10 @@
+import java.nio.file.FileSystemException;
+
+// Não há blocos livres suficientes no volume para a operação
+public class NoSpaceException extends FileSystemException {
+    private static final long serialVersionUID = 1L;
+
+    public NoSpaceException(String file) {
+        super(file, null, "No space left on device");
+    }
+}
@@ -0,0 +1,35 @@
+// Latência de cada tipo de operação do FileSystem, medida em volta da chamada inteira (travas,
+// journal e E/S incluídos), com ou sem sucesso. Resolve é a resolução de caminhos, que também
+// acontece dentro das outras operações.
+public class OperationMetrics {
+    public enum Operation {
+        CREATE, WRITE, APPEND, READ, UNLINK, RESOLVE;
+
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+    public OperationMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    // start: System.nanoTime() no início da operação
+    public void record(Operation operation, long start) {
+        latencies[operation.ordinal()].record(System.nanoTime() - start);
+    }
+
+    public LatencyHistogram latency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+    }
+}
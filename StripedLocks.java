@@ -0,0 +1,31 @@
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Travas de leitura/escrita distribuídas por chave (o primeiro bloco de um diretório): chaves
+// diferentes quase sempre caem em travas diferentes, sem precisar criar e guardar uma trava para
+// cada diretório. Duas chaves podem compartilhar a mesma trava, então quem usa nunca deve segurar
+// mais de uma trava da mesma tabela ao mesmo tempo.
+public class StripedLocks {
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    public StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public StripedLocks(int count) {
+        if (count < 1 || Integer.bitCount(count) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a power of two: " + count);
+        }
+        stripes = new ReentrantReadWriteLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public ReentrantReadWriteLock get(long key) {
+        // Espalha os bits (blocos vizinhos) antes de escolher a trava
+        long h = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 32) & (stripes.length - 1)];
+    }
+}
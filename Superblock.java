@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Geometria do volume, gravada no início do bloco 0 da imagem. Layout: bloco 0 = superbloco,
+// blocos 1..fatBlocks = FAT (entradas de 32 bits), em seguida o journal de metadados
+// (journalBlocks blocos, que podem ser zero), o diretório raiz e os dados.
+// Imagens da versão 1 não têm journal e continuam sendo montadas.
+public class Superblock {
+    public static final int MAGIC = 0x54325346; // "T2SF"
+    public static final int VERSION = 2;
+    public static final int SIZE = 9 * 4;
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+    // A FAT inteira precisa caber em um único array/buffer em memória
+    public static final int MAX_BLOCKS = Integer.MAX_VALUE / FileSystemParam.FAT_ENTRY_SIZE;
+
+    private final int blockSize;
+    private final int blocks;
+    private final int fatStart;
+    private final int fatBlocks;
+    private final int journalStart;
+    private final int journalBlocks;
+    private final int rootBlock;
+
+    // Com o journal no tamanho padrão (defaultJournalBlocks)
+    public Superblock(int blockSize, int blocks) {
+        this(blockSize, blocks, -1);
+    }
+
+    public Superblock(int blockSize, int blocks, int journalBlocks) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException(
+                    "Block size must be a power of two between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
+        }
+        if (blocks < 1 || blocks > MAX_BLOCKS) {
+            throw new IllegalArgumentException("Block count must be between 1 and " + MAX_BLOCKS);
+        }
+        this.blockSize = blockSize;
+        this.blocks = blocks;
+        this.fatStart = 1;
+        this.fatBlocks = (int) (((long) blocks * FileSystemParam.FAT_ENTRY_SIZE + blockSize - 1) / blockSize);
+        this.journalStart = fatStart + fatBlocks;
+        if (journalBlocks < 0) {
+            journalBlocks = defaultJournalBlocks(blockSize, blocks, journalStart);
+        }
+        this.journalBlocks = journalBlocks;
+        this.rootBlock = journalStart + journalBlocks;
+        if (rootBlock + 1 >= blocks) {
+            throw new IllegalArgumentException("Too few blocks: superblock, FAT, journal and root directory need "
+                    + (rootBlock + 1) + ", plus at least one data block");
+        }
+    }
+
+    // Um bloco de cabeçalho e uma área de registro com o dobro do pior caso de uma operação (toda
+    // a FAT alterada em entradas alternadas, um trecho de 13 bytes a cada duas entradas, e algumas
+    // entradas de diretório): assim, fazendo checkpoint com a área pela metade, uma operação sempre
+    // cabe. Volumes pequenos demais para isso ficam sem journal.
+    private static int defaultJournalBlocks(int blockSize, int blocks, int journalStart) {
+        long bytes = 14L * blocks + 4096;
+        long journalBlocks = 1 + (bytes + blockSize - 1) / blockSize;
+        if (journalStart + journalBlocks + 1 >= blocks / 2) {
+            return 0;
+        }
+        return (int) journalBlocks;
+    }
+
+    public static Superblock read(BlockDevice device) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        device.read(0, buffer);
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a formatted file system image: " + device.getFile());
+        }
+        int version = buffer.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported image version " + version);
+        }
+        int blockSize = buffer.getInt();
+        int blocks = buffer.getInt();
+        int entrySize = buffer.getInt();
+        if (entrySize != FileSystemParam.FAT_ENTRY_SIZE) {
+            throw new IOException("Unsupported FAT entry width: " + entrySize * 8 + " bits");
+        }
+        int fatStart = buffer.getInt();
+        int fatBlocks = buffer.getInt();
+        int journalBlocks = version == 1 ? 0 : buffer.getInt();
+        Superblock superblock;
+        try {
+            superblock = new Superblock(blockSize, blocks, journalBlocks);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt superblock: " + e.getMessage());
+        }
+        if (fatStart != superblock.fatStart || fatBlocks != superblock.fatBlocks
+                || buffer.getInt() != superblock.rootBlock) {
+            throw new IOException("Corrupt superblock: layout does not match geometry");
+        }
+        if (device.size() < superblock.getImageSize()) {
+            throw new IOException("Image is truncated: expected " + superblock.getImageSize() + " bytes");
+        }
+        return superblock;
+    }
+
+    public void write(BlockDevice device) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(blockSize);
+        buffer.putInt(blocks);
+        buffer.putInt(FileSystemParam.FAT_ENTRY_SIZE);
+        buffer.putInt(fatStart);
+        buffer.putInt(fatBlocks);
+        buffer.putInt(journalBlocks);
+        buffer.putInt(rootBlock);
+        buffer.flip();
+        device.write(0, buffer);
+        device.flush(0, SIZE);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlocks() {
+        return blocks;
+    }
+
+    public int getFatStart() {
+        return fatStart;
+    }
+
+    public int getFatBlocks() {
+        return fatBlocks;
+    }
+
+    // Tamanho em bytes das entradas da FAT (sem o preenchimento do último bloco)
+    public int getFatSize() {
+        return blocks * FileSystemParam.FAT_ENTRY_SIZE;
+    }
+
+    public int getJournalStart() {
+        return journalStart;
+    }
+
+    public int getJournalBlocks() {
+        return journalBlocks;
+    }
+
+    public int getRootBlock() {
+        return rootBlock;
+    }
+
+    public int getDirEntries() {
+        return blockSize / FileSystemParam.DIR_ENTRY_SIZE;
+    }
+
+    public long getImageSize() {
+        return (long) blocks * blockSize;
+    }
+
+    public long position(int block) {
+        return (long) block * blockSize;
+    }
+}
@@ -0,0 +1,72 @@
+package fsbench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Muitos acréscimos pequenos ao mesmo arquivo, pelo caminho e por um handle aberto. A cada
+// RESET_EVERY acréscimos o arquivo é esvaziado, para que o volume não encha durante a medição.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AppendBenchmark {
+    private static final int RESET_EVERY = 4096;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Param({"64", "1024"})
+    public int recordSize;
+
+    private Volume volume;
+    private byte[] record;
+    private int handle;
+    private int appends;
+
+    @Setup
+    public void setup() throws IOException {
+        volume = Volume.format(1024, 16384, false);
+        record = new byte[recordSize];
+        volume.mkdir("/var");
+        volume.create("/var/log");
+        handle = volume.open("/var/log");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    private void resetIfFull() throws IOException {
+        if (++appends == RESET_EVERY) {
+            volume.write("/var/log", EMPTY.duplicate());
+            appends = 0;
+        }
+    }
+
+    @Benchmark
+    public void appendByPath() throws IOException {
+        resetIfFull();
+        volume.append("/var/log", ByteBuffer.wrap(record));
+    }
+
+    @Benchmark
+    public void appendByHandle() throws IOException {
+        resetIfFull();
+        volume.append(handle, ByteBuffer.wrap(record));
+    }
+}
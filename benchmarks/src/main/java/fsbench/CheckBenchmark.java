@@ -0,0 +1,63 @@
+package fsbench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Verificação de consistência de um volume com arquivos de 4 KB espalhados em dez diretórios:
+// a completa (percorre a árvore) e a rápida (FAT contra a tabela de donos dos blocos)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CheckBenchmark {
+    @Param({"100", "1000"})
+    public int files;
+
+    private Volume volume;
+
+    @Setup
+    public void setup() throws IOException {
+        volume = Volume.format(1024, 65536, false);
+        byte[] data = new byte[4096];
+        for (int d = 0; d < 10; d++) {
+            volume.mkdir("/dir" + d);
+        }
+        for (int i = 0; i < files; i++) {
+            String path = "/dir" + (i % 10) + "/file" + i;
+            volume.create(path);
+            volume.write(path, ByteBuffer.wrap(data));
+        }
+        volume.sync();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    @Benchmark
+    public Object check() {
+        return volume.check();
+    }
+
+    @Benchmark
+    public Object checkFast() {
+        return volume.checkFast();
+    }
+}
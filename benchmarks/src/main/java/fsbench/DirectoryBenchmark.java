@@ -0,0 +1,72 @@
+package fsbench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Varredura de entradas de diretório e busca por nome em diretórios com muitas entradas
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DirectoryBenchmark {
+    @Param({"16", "256", "4096"})
+    public int entries;
+
+    private Volume volume;
+    private Object directories;
+    private int rootBlock;
+    private int dirEntries;
+    private String lastName;
+
+    @Setup
+    public void setup() throws IOException {
+        volume = Volume.format(1024, 16384, false);
+        for (int i = 0; i < entries; i++) {
+            volume.create("/file" + i);
+        }
+        directories = volume.directories();
+        rootBlock = volume.rootBlock();
+        dirEntries = volume.dirEntries();
+        lastName = "/file" + (entries - 1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    // Lê uma a uma as entradas do primeiro bloco da raiz
+    @Benchmark
+    public void readDirEntryScan(Blackhole bh) {
+        for (int i = 0; i < dirEntries; i++) {
+            bh.consume(Volume.readDirEntry(directories, rootBlock, i));
+        }
+    }
+
+    // Percorre todos os blocos do diretório
+    @Benchmark
+    public Object listDirectory() throws IOException {
+        return volume.list("/");
+    }
+
+    @Benchmark
+    public Object lookupLastEntry() throws IOException {
+        return volume.stat(lastName);
+    }
+}
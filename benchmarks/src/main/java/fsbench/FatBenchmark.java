@@ -0,0 +1,78 @@
+package fsbench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Alocação de blocos e persistência da FAT, com o volume vazio ou quase cheio
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FatBenchmark {
+    @Param({"65536"})
+    public int blocks;
+
+    // Porcentagem dos blocos ocupada antes de medir (um a cada dez fica livre, espalhado)
+    @Param({"0", "90"})
+    public int fillPercent;
+
+    private Volume volume;
+    private Object fat;
+
+    @Setup
+    public void setup() throws IOException {
+        volume = Volume.format(1024, blocks, false);
+        fat = volume.fat();
+        int[] allocated = new int[blocks * fillPercent / 100];
+        for (int i = 0; i < allocated.length; i++) {
+            allocated[i] = Volume.allocateBlock(fat);
+        }
+        // Libera blocos espaçados para que a busca por um livre tenha que percorrer a tabela
+        for (int i = 0; i < allocated.length; i += 10) {
+            Volume.freeBlock(fat, allocated[i]);
+        }
+        Volume.writeFAT(fat);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    @Benchmark
+    public int allocateBlock() {
+        int block = Volume.allocateBlock(fat);
+        Volume.freeBlock(fat, block);
+        return block;
+    }
+
+    // Uma entrada alterada: grava só o setor sujo da FAT
+    @Benchmark
+    public int saveFatDirtySector() {
+        int block = Volume.allocateBlock(fat);
+        Volume.freeBlock(fat, block);
+        Volume.writeFAT(fat);
+        return block;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void loadFat() {
+        Volume.loadFAT(fat);
+    }
+}
@@ -0,0 +1,74 @@
+package fsbench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Escrita e leitura sequencial de um arquivo inteiro, de 1 KB a 1 MB
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FileIoBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private Volume volume;
+    private byte[] data;
+    private byte[] chunk;
+
+    @Setup
+    public void setup() throws IOException {
+        volume = Volume.format(1024, 16384, mapped);
+        data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        chunk = new byte[64 * 1024];
+        volume.create("/written");
+        volume.create("/read");
+        volume.write("/read", ByteBuffer.wrap(data));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    // Substitui o conteúdo do arquivo (libera a cadeia anterior e grava uma nova)
+    @Benchmark
+    public void writeSequential() throws IOException {
+        volume.write("/written", ByteBuffer.wrap(data));
+    }
+
+    @Benchmark
+    public long readSequential() throws IOException {
+        long total = 0;
+        try (InputStream in = volume.newInputStream("/read")) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,71 @@
+package fsbench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Criar e remover um arquivo, cada operação confirmada no journal antes de retornar. Com várias
+// threads os commits são agrupados: a vazão deve crescer bem mais que a de uma thread só, já
+// que o custo dominante (o force) é dividido entre as operações do grupo.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JournalBenchmark {
+    private final AtomicInteger threads = new AtomicInteger();
+    private Volume volume;
+
+    @State(Scope.Thread)
+    public static class Worker {
+        String file;
+
+        @Setup
+        public void setup(JournalBenchmark benchmark) throws IOException {
+            String dir = "/w" + benchmark.threads.getAndIncrement();
+            benchmark.volume.mkdir(dir);
+            file = dir + "/f";
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        volume = Volume.format(1024, 16384, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    private void createAndUnlink(Worker worker) throws IOException {
+        volume.create(worker.file);
+        volume.unlink(worker.file);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneThread(Worker worker) throws IOException {
+        createAndUnlink(worker);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void eightThreads(Worker worker) throws IOException {
+        createAndUnlink(worker);
+    }
+}
@@ -0,0 +1,54 @@
+package fsbench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Resolução de caminhos em função da profundidade
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PathBenchmark {
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private Volume volume;
+    private String path;
+
+    @Setup
+    public void setup() throws IOException {
+        volume = Volume.format(1024, 4096, false);
+        StringBuilder dir = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            dir.append("/d").append(i);
+            volume.mkdir(dir.toString());
+        }
+        path = dir + "/leaf";
+        volume.create(path);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    @Benchmark
+    public Object stat() throws IOException {
+        return volume.stat(path);
+    }
+}
@@ -0,0 +1,335 @@
+package fsbench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// Acesso ao sistema de arquivos a partir dos benchmarks. As classes do projeto estão no pacote padrão,
+// que não pode ser importado de um pacote nomeado, e o JMH não aceita benchmarks no pacote padrão;
+// por isso as chamadas passam por MethodHandles em campos static final, que o JIT trata como
+// constantes (o custo fica próximo ao de uma chamada direta).
+public final class Volume implements AutoCloseable {
+    private static final MethodHandle NEW;
+    private static final MethodHandle FORMAT;
+    private static final MethodHandle MOUNT;
+    private static final MethodHandle MKDIR;
+    private static final MethodHandle CREATE;
+    private static final MethodHandle UNLINK;
+    private static final MethodHandle WRITE;
+    private static final MethodHandle APPEND;
+    private static final MethodHandle READ;
+    private static final MethodHandle NEW_INPUT_STREAM;
+    private static final MethodHandle OPEN;
+    private static final MethodHandle APPEND_HANDLE;
+    private static final MethodHandle STAT;
+    private static final MethodHandle LIST;
+    private static final MethodHandle CHECK;
+    private static final MethodHandle CHECK_FAST;
+    private static final MethodHandle SYNC;
+    private static final MethodHandle CLOSE;
+    private static final MethodHandle GET_SUPERBLOCK;
+    private static final MethodHandle GET_FAT;
+    private static final MethodHandle GET_DIRS;
+    private static final MethodHandle ROOT_BLOCK;
+    private static final MethodHandle DIR_ENTRIES;
+    private static final MethodHandle ALLOCATE_BLOCK;
+    private static final MethodHandle FREE_BLOCK;
+    private static final MethodHandle WRITE_FAT;
+    private static final MethodHandle LOAD_FAT;
+    private static final MethodHandle READ_DIR_ENTRY;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> fs = Class.forName("FileSystem");
+            Class<?> superblock = Class.forName("Superblock");
+            Class<?> fat = Class.forName("FATManager");
+            Class<?> dirs = Class.forName("DirectoryManager");
+            Class<?> stat = Class.forName("FileStat");
+            Class<?> dirEntry = Class.forName("DirEntry");
+            NEW = lookup.findConstructor(fs, MethodType.methodType(void.class, String.class));
+            FORMAT = lookup.findVirtual(fs, "format",
+                    MethodType.methodType(void.class, int.class, int.class, boolean.class, int.class));
+            MOUNT = lookup.findVirtual(fs, "mount", MethodType.methodType(int.class, boolean.class, int.class));
+            MKDIR = lookup.findVirtual(fs, "mkdir", MethodType.methodType(void.class, String.class));
+            CREATE = lookup.findVirtual(fs, "create", MethodType.methodType(void.class, String.class));
+            UNLINK = lookup.findVirtual(fs, "unlink", MethodType.methodType(void.class, String.class));
+            WRITE = lookup.findVirtual(fs, "write",
+                    MethodType.methodType(void.class, String.class, ByteBuffer.class));
+            APPEND = lookup.findVirtual(fs, "append",
+                    MethodType.methodType(void.class, String.class, ByteBuffer.class));
+            READ = lookup.findVirtual(fs, "read",
+                    MethodType.methodType(int.class, String.class, long.class, ByteBuffer.class));
+            NEW_INPUT_STREAM = lookup.findVirtual(fs, "newInputStream",
+                    MethodType.methodType(InputStream.class, String.class));
+            OPEN = lookup.findVirtual(fs, "open", MethodType.methodType(int.class, String.class));
+            APPEND_HANDLE = lookup.findVirtual(fs, "append",
+                    MethodType.methodType(void.class, int.class, ByteBuffer.class));
+            STAT = lookup.findVirtual(fs, "stat", MethodType.methodType(stat, String.class));
+            LIST = lookup.findVirtual(fs, "list", MethodType.methodType(List.class, String.class));
+            CHECK = lookup.findVirtual(fs, "check", MethodType.methodType(List.class));
+            CHECK_FAST = lookup.findVirtual(fs, "checkFast", MethodType.methodType(Class.forName("CheckReport")));
+            SYNC = lookup.findVirtual(fs, "sync", MethodType.methodType(void.class));
+            CLOSE = lookup.findVirtual(fs, "close", MethodType.methodType(void.class));
+            GET_SUPERBLOCK = lookup.findVirtual(fs, "getSuperblock", MethodType.methodType(superblock));
+            GET_FAT = lookup.findVirtual(fs, "getFatManager", MethodType.methodType(fat));
+            GET_DIRS = lookup.findVirtual(fs, "getDirectoryManager", MethodType.methodType(dirs));
+            ROOT_BLOCK = lookup.findVirtual(superblock, "getRootBlock", MethodType.methodType(int.class));
+            DIR_ENTRIES = lookup.findVirtual(superblock, "getDirEntries", MethodType.methodType(int.class));
+            ALLOCATE_BLOCK = lookup.findVirtual(fat, "allocateBlock", MethodType.methodType(int.class));
+            FREE_BLOCK = lookup.findVirtual(fat, "freeBlock", MethodType.methodType(void.class, int.class));
+            WRITE_FAT = lookup.findVirtual(fat, "writeFAT", MethodType.methodType(void.class));
+            LOAD_FAT = lookup.findVirtual(fat, "loadFAT", MethodType.methodType(void.class));
+            READ_DIR_ENTRY = lookup.findVirtual(dirs, "readDirEntry",
+                    MethodType.methodType(dirEntry, int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Path image;
+    private final Object fs;
+
+    private Volume(Path image, Object fs) {
+        this.image = image;
+        this.fs = fs;
+    }
+
+    // Cria uma imagem temporária e a formata com a geometria dada
+    public static Volume format(int blockSize, int blocks, boolean mapped) throws IOException {
+        Path image = Files.createTempFile("fsbench", ".dat");
+        try {
+            Object fs = NEW.invoke(image.toString());
+            FORMAT.invoke(fs, blockSize, blocks, mapped, 0);
+            return new Volume(image, fs);
+        } catch (Throwable t) {
+            Files.deleteIfExists(image);
+            throw rethrow(t);
+        }
+    }
+
+    public int mount() throws IOException {
+        try {
+            return (int) MOUNT.invoke(fs, false, 0);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void mkdir(String path) throws IOException {
+        try {
+            MKDIR.invoke(fs, path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void create(String path) throws IOException {
+        try {
+            CREATE.invoke(fs, path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void unlink(String path) throws IOException {
+        try {
+            UNLINK.invoke(fs, path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void write(String path, ByteBuffer data) throws IOException {
+        try {
+            WRITE.invoke(fs, path, data);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void append(String path, ByteBuffer data) throws IOException {
+        try {
+            APPEND.invoke(fs, path, data);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public int read(String path, long offset, ByteBuffer dst) throws IOException {
+        try {
+            return (int) READ.invoke(fs, path, offset, dst);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public InputStream newInputStream(String path) throws IOException {
+        try {
+            return (InputStream) NEW_INPUT_STREAM.invoke(fs, path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public int open(String path) throws IOException {
+        try {
+            return (int) OPEN.invoke(fs, path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void append(int handle, ByteBuffer data) throws IOException {
+        try {
+            APPEND_HANDLE.invoke(fs, handle, data);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public Object stat(String path) throws IOException {
+        try {
+            return STAT.invoke(fs, path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public List<?> list(String path) throws IOException {
+        try {
+            return (List<?>) LIST.invoke(fs, path);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public List<?> check() {
+        try {
+            return (List<?>) CHECK.invoke(fs);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public Object checkFast() {
+        try {
+            return CHECK_FAST.invoke(fs);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public void sync() throws IOException {
+        try {
+            SYNC.invoke(fs);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public int rootBlock() {
+        try {
+            return (int) ROOT_BLOCK.invoke(GET_SUPERBLOCK.invoke(fs));
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public int dirEntries() {
+        try {
+            return (int) DIR_ENTRIES.invoke(GET_SUPERBLOCK.invoke(fs));
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // Operações sobre a FAT e os diretórios, abaixo da API de caminhos
+
+    public Object fat() {
+        try {
+            return GET_FAT.invoke(fs);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public Object directories() {
+        try {
+            return GET_DIRS.invoke(fs);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public static int allocateBlock(Object fat) {
+        try {
+            return (int) ALLOCATE_BLOCK.invoke(fat);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public static void freeBlock(Object fat, int block) {
+        try {
+            FREE_BLOCK.invoke(fat, block);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public static void writeFAT(Object fat) {
+        try {
+            WRITE_FAT.invoke(fat);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public static void loadFAT(Object fat) {
+        try {
+            LOAD_FAT.invoke(fat);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    public static Object readDirEntry(Object directories, int block, int index) {
+        try {
+            return READ_DIR_ENTRY.invoke(directories, block, index);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            CLOSE.invoke(fs);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    private static IOException rethrow(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new UncheckedIOException(new IOException(t));
+    }
+}